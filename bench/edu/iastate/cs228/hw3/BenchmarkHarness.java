@@ -0,0 +1,129 @@
+package edu.iastate.cs228.hw3;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+/**
+ * Minimal dependency-free micro-benchmark runner. Each case is warmed up for
+ * a fixed time, then run for a fixed time; the report gives the average time
+ * per operation, the throughput, and the bytes allocated per operation by the
+ * calling thread (from com.sun.management.ThreadMXBean, where available).
+ * 
+ * Operations return a long that is folded into a sink, so the JIT cannot drop
+ * them as dead code.
+ * 
+ * @author Andrew Pester
+ *
+ */
+final class BenchmarkHarness {
+
+	/**
+	 * One benchmarked operation; i counts the calls, for cycling over inputs.
+	 */
+	interface Op {
+		long run(int i);
+	}
+
+	private static final long BATCH_NANOS = 10000000;
+
+	private final long warmupNanos;
+	private final long measureNanos;
+	private final String filter;
+	private final com.sun.management.ThreadMXBean threads;
+	private long sink;
+
+	/**
+	 * @param warmupMillis  warm-up time per case
+	 * @param measureMillis measured time per case
+	 * @param filter        only cases whose name contains it are run; null for
+	 *                      all
+	 */
+	BenchmarkHarness(long warmupMillis, long measureMillis, String filter) {
+
+		warmupNanos = warmupMillis * 1000000;
+		measureNanos = measureMillis * 1000000;
+		this.filter = filter;
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean
+				&& ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+			threads = (com.sun.management.ThreadMXBean) bean;
+			threads.setThreadAllocatedMemoryEnabled(true);
+		} else {
+			threads = null;
+		}
+		System.out.println(String.format(Locale.ROOT, "%-32s %-14s %14s %14s %12s", "benchmark", "param",
+				"ns/op", "ops/s", "B/op"));
+	}
+
+	/**
+	 * Runs and reports one case.
+	 * 
+	 * @param name     benchmark name
+	 * @param param    parameter value, e.g. the input distribution
+	 * @param opsPerCall operations done by one call of op, for normalizing
+	 * @param op
+	 * @return average nanoseconds per operation, or -1 if the case was filtered
+	 *         out
+	 */
+	double run(String name, String param, int opsPerCall, Op op) {
+
+		if (filter != null && !(name + " " + param).contains(filter)) {
+			return -1;
+		}
+		loop(op, warmupNanos);
+
+		long bytesBefore = allocatedBytes();
+		long start = System.nanoTime();
+		long calls = loop(op, measureNanos);
+		long elapsed = System.nanoTime() - start;
+		long bytes = allocatedBytes() - bytesBefore;
+
+		double ops = (double) calls * opsPerCall;
+		double nanosPerOp = elapsed / ops;
+		String perOp = threads == null ? "n/a" : String.format(Locale.ROOT, "%.1f", bytes / ops);
+		System.out.println(String.format(Locale.ROOT, "%-32s %-14s %14.1f %14.0f %12s", name, param, nanosPerOp,
+				1e9 / nanosPerOp, perOp));
+		return nanosPerOp;
+	}
+
+	/**
+	 * @return the sink, so that callers can print it once at the end
+	 */
+	long sink() {
+
+		return sink;
+	}
+
+	/**
+	 * Calls op in batches until at least nanos have passed.
+	 * 
+	 * @return number of calls
+	 */
+	private long loop(Op op, long nanos) {
+
+		long calls = 0;
+		long s = 0;
+		long now = System.nanoTime();
+		long deadline = now + nanos;
+		int batch = 1;
+		do {
+			long batchStart = now;
+			for (int i = 0; i < batch; i++) {
+				s += op.run((int) calls + i);
+			}
+			calls += batch;
+			now = System.nanoTime();
+			// grow batches while they are short, so that the clock is read rarely
+			if (now - batchStart < BATCH_NANOS) {
+				batch <<= 1;
+			}
+		} while (now < deadline);
+		sink += s;
+		return calls;
+	}
+
+	private long allocatedBytes() {
+
+		return threads == null ? 0 : threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+}
@@ -0,0 +1,169 @@
+package edu.iastate.cs228.hw3;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Benchmarks of the PrimeFactorization hot paths, run by BenchmarkHarness.
+ * 
+ * Factoring and isPrime() run over five input distributions: smooth numbers
+ * (products of primes below 100), semiprimes of two 31-bit primes, prime
+ * powers, random 32-bit values and random 63-bit values (limited to those
+ * whose prime factors fit in an int, like PrimeFactor). The list operations
+ * (multiply, dividedBy, gcd, lcm, toString and traversal) run over
+ * factorizations of 1 to 10000 distinct primes. factorAll() is timed for 1
+ * up to availableProcessors() worker threads to show its scaling.
+ * 
+ * Usage: java edu.iastate.cs228.hw3.FactorizationBenchmarks [filter]
+ * where filter selects the cases whose name or parameter contains it. The
+ * system properties bench.warmup and bench.measure set the milliseconds
+ * spent per case (default 500 and 1000).
+ * 
+ * @author Andrew Pester
+ *
+ */
+public class FactorizationBenchmarks {
+	private static final int INPUTS = 1 << 10; // numbers per distribution
+	private static final int BATCH_INPUTS = 1 << 14; // numbers per factorAll() call
+	private static final int[] LIST_SIZES = { 1, 10, 100, 1000, 10000 };
+
+	private static final String[] DISTRIBUTIONS = { "smooth", "semiprime", "primepower", "random32",
+			"random64" };
+
+	private static long traversed; // written by the forEachFactor consumer
+
+	/**
+	 * Allocated once so that the forEachFactor benchmark measures the traversal
+	 * only.
+	 */
+	private static final IntIntConsumer SUM = (p, m) -> traversed += p + m;
+
+	public static void main(String[] args) {
+
+		BenchmarkHarness h = new BenchmarkHarness(Long.getLong("bench.warmup", 500),
+				Long.getLong("bench.measure", 1000), args.length > 0 ? args[0] : null);
+
+		for (String d : DISTRIBUTIONS) {
+			long[] inputs = inputs(d, INPUTS, new Random(d.hashCode()));
+			h.run("constructor", d, 1, i -> new PrimeFactorization(inputs[i & (INPUTS - 1)]).size());
+			h.run("isPrime", d, 1, i -> PrimeFactorization.isPrime(inputs[i & (INPUTS - 1)]) ? 1 : 0);
+			PrimeFactorization pf = new PrimeFactorization(inputs[0]);
+			h.run("multiply(long)", d, 1, i -> {
+				PrimeFactorization copy = new PrimeFactorization(pf);
+				copy.multiply(inputs[i & (INPUTS - 1)]);
+				return copy.size();
+			});
+		}
+
+		for (int size : LIST_SIZES) {
+			String param = "factors=" + size;
+			PrimeFactorization a = list(size, 0, new Random(size));
+			PrimeFactorization b = list(size, size / 2, new Random(-size));
+			PrimeFactorization ab = PrimeFactorization.multiply(a, b);
+			h.run("multiply(PF)", param, 1, i -> PrimeFactorization.multiply(a, b).size());
+			h.run("dividedBy(PF)", param, 1, i -> PrimeFactorization.dividedBy(ab, b).size());
+			h.run("gcd(PF)", param, 1, i -> a.gcd(b).size());
+			h.run("lcm(PF)", param, 1, i -> a.lcm(b).size());
+			h.run("gcd(long)", param, 1, i -> a.gcd(6469693230L * (i & 15 | 1)).size());
+			h.run("mod(long)", param, 1, i -> a.mod(1000000007L + i));
+			h.run("toString", param, 1, i -> a.toString().length());
+			h.run("forEachFactor", param, 1, i -> {
+				a.forEachFactor(SUM);
+				return traversed;
+			});
+			h.run("cursor", param, 1, i -> {
+				long s = 0;
+				for (PrimeFactorization.FactorCursor c = a.cursor(); c.next();) {
+					s += c.prime() + c.multiplicity();
+				}
+				return s;
+			});
+		}
+
+		long[] batch = inputs("random32", BATCH_INPUTS, new Random(11));
+		double single = 0;
+		for (int threads = 1; threads <= Runtime.getRuntime().availableProcessors(); threads *= 2) {
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			double nanos = h.run("factorAll", "threads=" + threads, BATCH_INPUTS,
+					i -> PrimeFactorization.factorAll(batch, pool).length);
+			pool.shutdown();
+			if (threads == 1) {
+				single = nanos;
+			} else if (nanos > 0 && single > 0) {
+				System.out.println(String.format("%-32s %-14s %14.2fx", "factorAll speedup", "threads=" + threads,
+						single / nanos));
+			}
+		}
+		System.out.println("sink " + h.sink());
+	}
+
+	/**
+	 * @return count inputs of the named distribution
+	 */
+	private static long[] inputs(String distribution, int count, Random random) {
+
+		long[] ret = new long[count];
+		for (int i = 0; i < count; i++) {
+			switch (distribution) {
+			case "smooth":
+				long n = 1;
+				long p;
+				while (Long.MAX_VALUE / 2 / n > (p = PrimeTable.prime(random.nextInt(25)))) {
+					n *= p;
+				}
+				ret[i] = n;
+				break;
+			case "semiprime":
+				ret[i] = PrimeTable.nextPrime((1L << 30) + random.nextInt(1 << 30) - 64)
+						* PrimeTable.nextPrime((1L << 30) + random.nextInt(1 << 30) - 64);
+				break;
+			case "primepower":
+				long q = PrimeTable.nextPrime(random.nextInt(1 << 20));
+				long power = q;
+				while (Long.MAX_VALUE / q > power) {
+					power *= q;
+				}
+				ret[i] = power;
+				break;
+			case "random32":
+				ret[i] = 1 + random.nextInt(Integer.MAX_VALUE);
+				break;
+			case "random64":
+				ret[i] = holdable(random);
+				break;
+			default:
+				throw new IllegalArgumentException(distribution);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * @return a random 63-bit value whose prime factors all fit in an int
+	 */
+	private static long holdable(Random random) {
+
+		while (true) {
+			long n = 1 + (random.nextLong() >>> 1);
+			try {
+				new PrimeFactorization(n);
+				return n;
+			} catch (IllegalArgumentException e) {
+				// a prime factor above Integer.MAX_VALUE; draw again
+			}
+		}
+	}
+
+	/**
+	 * @return factorization of size distinct primes from the offset-th prime on,
+	 *         with random multiplicities from 1 to 3
+	 */
+	private static PrimeFactorization list(int size, int offset, Random random) {
+
+		PrimeFactor[] factors = new PrimeFactor[size];
+		for (int i = 0; i < size; i++) {
+			factors[i] = new PrimeFactor(PrimeTable.prime(offset + i), 1 + random.nextInt(3));
+		}
+		return new PrimeFactorization(factors);
+	}
+}
@@ -0,0 +1,315 @@
+package edu.iastate.cs228.hw3;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Array-backed counterpart of PrimeFactorization with the same public list
+ * API. The distinct primes are kept sorted in primes[0..size) with their
+ * multiplicities at the same indices of multiplicities[], so a lookup is a
+ * binary search and no node or PrimeFactor object is kept per factor.
+ * 
+ * @author Andrew Pester
+ *
+ */
+public class ArrayPrimeFactorization implements Iterable<PrimeFactor>, FactorSource {
+	private static final long OVERFLOW = -1;
+	private static final int DEFAULT_CAPACITY = 4;
+
+	private int[] primes; // distinct prime factors in increasing order
+	private int[] multiplicities; // multiplicities[i] belongs to primes[i]
+	private int size; // number of distinct prime factors
+
+	// ------------
+	// Constructors
+	// ------------
+
+	/**
+	 * Default constructor constructs an empty factorization to represent the
+	 * number 1.
+	 */
+	public ArrayPrimeFactorization() {
+
+		primes = new int[DEFAULT_CAPACITY];
+		multiplicities = new int[DEFAULT_CAPACITY];
+	}
+
+	/**
+	 * Obtains the prime factorization of n with the installed FactorizationTable
+	 * if it covers n, the installed FactoringEngine otherwise.
+	 * 
+	 * @param n
+	 * @throws IllegalArgumentException if n < 1 or n has a prime factor larger
+	 *                                  than Integer.MAX_VALUE
+	 */
+	public ArrayPrimeFactorization(long n) throws IllegalArgumentException {
+
+		primes = new int[FactoringEngine.MAX_DISTINCT_FACTORS];
+		multiplicities = new int[FactoringEngine.MAX_DISTINCT_FACTORS];
+		size = PrimeFactorization.engineFor(n).factor(n, primes, multiplicities);
+	}
+
+	/**
+	 * Copy constructor.
+	 * 
+	 * @param pf
+	 */
+	public ArrayPrimeFactorization(ArrayPrimeFactorization pf) {
+
+		primes = Arrays.copyOf(pf.primes, Math.max(pf.size, DEFAULT_CAPACITY));
+		multiplicities = Arrays.copyOf(pf.multiplicities, primes.length);
+		size = pf.size;
+	}
+
+	/**
+	 * Converts a linked factorization. It is unnecessary to verify the primality
+	 * of the numbers in the list.
+	 * 
+	 * @param pf
+	 */
+	public ArrayPrimeFactorization(PrimeFactorization pf) {
+
+		primes = new int[Math.max(pf.size(), DEFAULT_CAPACITY)];
+		multiplicities = new int[primes.length];
+		for (PrimeFactorization.FactorCursor c = pf.cursor(); c.next();) {
+			primes[size] = c.prime();
+			multiplicities[size] = c.multiplicity();
+			size++;
+		}
+	}
+
+	/**
+	 * Constructs a factorization from an array of prime factors, which may come
+	 * in any order and repeat primes.
+	 * 
+	 * @param pfList
+	 * @throws IllegalArgumentException if some pfList[i].prime is not a prime
+	 */
+	public ArrayPrimeFactorization(PrimeFactor[] pfList) throws IllegalArgumentException {
+
+		this();
+		for (PrimeFactor f : pfList) {
+			if (!PrimeFactorization.isPrime(f.prime)) {
+				throw new IllegalArgumentException();
+			}
+			add(f.prime, f.multiplicity);
+		}
+	}
+
+	// ------------
+	// List Methods
+	// ------------
+
+	/**
+	 * @param p
+	 * @return true if p is a prime factor of the represented number false
+	 *         otherwise
+	 * @throws IllegalArgumentException if p is not a prime
+	 */
+	public boolean containsPrimeFactor(int p) throws IllegalArgumentException {
+
+		if (!PrimeFactorization.isPrime(p)) {
+			throw new IllegalArgumentException();
+		}
+		return indexOf(p) >= 0;
+	}
+
+	/**
+	 * Adds a prime factor p of multiplicity m.
+	 * 
+	 * Precondition: p is a prime.
+	 * 
+	 * @param p prime
+	 * @param m multiplicity
+	 * @return true if m >= 1 false if m < 1
+	 */
+	public boolean add(int p, int m) {
+
+		if (m < 1) {
+			return false;
+		}
+		int i = indexOf(p);
+		if (i >= 0) {
+			multiplicities[i] += m;
+			return true;
+		}
+		i = -i - 1;
+		if (size == primes.length) {
+			primes = Arrays.copyOf(primes, 2 * size);
+			multiplicities = Arrays.copyOf(multiplicities, 2 * size);
+		}
+		System.arraycopy(primes, i, primes, i + 1, size - i);
+		System.arraycopy(multiplicities, i, multiplicities, i + 1, size - i);
+		primes[i] = p;
+		multiplicities[i] = m;
+		size++;
+		return true;
+	}
+
+	/**
+	 * Removes m from the multiplicity of a prime p. If the multiplicity of p is
+	 * at most m, p is removed altogether.
+	 * 
+	 * Precondition: p is a prime.
+	 * 
+	 * @param p
+	 * @param m
+	 * @return true when p is found. false when p is not found.
+	 * @throws IllegalArgumentException if m < 1
+	 */
+	public boolean remove(int p, int m) throws IllegalArgumentException {
+
+		if (m < 1) {
+			throw new IllegalArgumentException();
+		}
+		int i = indexOf(p);
+		if (i < 0) {
+			return false;
+		}
+		if (multiplicities[i] > m) {
+			multiplicities[i] -= m;
+		} else {
+			removeAt(i);
+		}
+		return true;
+	}
+
+	/**
+	 * 
+	 * @return number of distinct prime factors
+	 */
+	@Override
+	public int size() {
+
+		return size;
+	}
+
+	/**
+	 * Writes out the factorization in the same form as
+	 * PrimeFactorization.toString(), e.g. "2 * 3^2 * 17 * 19".
+	 */
+	@Override
+	public String toString() {
+
+		return PrimeFactorizationFormat.format(this, new StringBuilder(8 * size + 1)).toString();
+	}
+
+	/**
+	 * Calls action with every prime and multiplicity in increasing order of the
+	 * primes. action must not modify this object.
+	 * 
+	 * @param action
+	 */
+	@Override
+	public void forEachFactor(IntIntConsumer action) {
+
+		for (int i = 0; i < size; i++) {
+			action.accept(primes[i], multiplicities[i]);
+		}
+	}
+
+	/**
+	 * @return true if the represented value is too large for a long false
+	 *         otherwise
+	 */
+	public boolean valueOverflow() {
+
+		return value() == OVERFLOW;
+	}
+
+	/**
+	 * @return value represented by this factorization, or -1 if
+	 *         valueOverflow()
+	 */
+	public long value() {
+
+		long value = 1;
+		for (int i = 0; i < size && value != OVERFLOW; i++) {
+			value = PrimeFactorization.multiplyValues(value, PrimeFactorization.power(primes[i], multiplicities[i]));
+		}
+		return value;
+	}
+
+	/**
+	 * @return an array of new PrimeFactor objects, one per distinct prime
+	 */
+	public PrimeFactor[] toArray() {
+
+		PrimeFactor[] arr = new PrimeFactor[size];
+		for (int i = 0; i < size; i++) {
+			arr[i] = new PrimeFactor(primes[i], multiplicities[i]);
+		}
+		return arr;
+	}
+
+	/**
+	 * @return a linked PrimeFactorization holding the same factors
+	 */
+	public PrimeFactorization toPrimeFactorization() {
+
+		return new PrimeFactorization(toArray());
+	}
+
+	/**
+	 * The returned iterator hands out a new PrimeFactor per call to next(), so
+	 * changing its fields does not change this factorization. remove() is
+	 * supported.
+	 */
+	@Override
+	public Iterator<PrimeFactor> iterator() {
+
+		return new ArrayPrimeFactorizationIterator();
+	}
+
+	private class ArrayPrimeFactorizationIterator implements Iterator<PrimeFactor> {
+		private int index = 0; // index of the next factor
+		private boolean removable = false;
+
+		@Override
+		public boolean hasNext() {
+
+			return index < size;
+		}
+
+		@Override
+		public PrimeFactor next() {
+
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			removable = true;
+			index++;
+			return new PrimeFactor(primes[index - 1], multiplicities[index - 1]);
+		}
+
+		@Override
+		public void remove() throws IllegalStateException {
+
+			if (!removable) {
+				throw new IllegalStateException();
+			}
+			removeAt(--index);
+			removable = false;
+		}
+	}
+
+	// --------------
+	// Helper methods
+	// --------------
+
+	/**
+	 * @return index of p, or (-(insertion point) - 1) if p is not present
+	 */
+	private int indexOf(int p) {
+
+		return Arrays.binarySearch(primes, 0, size, p);
+	}
+
+	private void removeAt(int i) {
+
+		System.arraycopy(primes, i + 1, primes, i, size - i - 1);
+		System.arraycopy(multiplicities, i + 1, multiplicities, i, size - i - 1);
+		size--;
+	}
+}
@@ -0,0 +1,188 @@
+package edu.iastate.cs228.hw3;
+
+import java.math.BigInteger;
+
+/**
+ * Factoring for numbers beyond the range of long, behind
+ * PrimeFactorization(BigInteger). Small primes are removed by trial division
+ * against the PrimeTable, larger ones are split off with Pollard's rho method
+ * (Brent's variant) on BigInteger, and every piece that fits in a long is
+ * handed to the installed FactoringEngine.
+ * 
+ * @author Andrew Pester
+ *
+ */
+final class BigFactorizer {
+
+	/**
+	 * Primes below this bound are divided out of n, a batch at a time, before
+	 * Pollard's rho is tried on what is left.
+	 */
+	private static final int TRIAL_BOUND = 1 << 16;
+
+	/**
+	 * Number of primes below TRIAL_BOUND. The initial PrimeTable covers them,
+	 * so trial division never makes the table grow.
+	 */
+	private static final int TRIAL_PRIMES = PrimeTable.count(TRIAL_BOUND);
+
+	/**
+	 * Certainty passed to BigInteger.isProbablePrime().
+	 */
+	private static final int CERTAINTY = 50;
+
+	/**
+	 * Rho steps tried per polynomial. A prime factor below 2^31 is expected
+	 * after about 2^16 steps, so running out makes one very unlikely.
+	 */
+	private static final long MAX_STEPS = 1L << 20;
+
+	private static final int ATTEMPTS = 4;
+
+	private BigFactorizer() {
+
+	}
+
+	/**
+	 * Multiplies pf by the prime factors of n.
+	 * 
+	 * @param n
+	 * @param pf
+	 * @throws IllegalArgumentException if n < 1 or n has a prime factor larger
+	 *                                  than Integer.MAX_VALUE
+	 */
+	static void factor(BigInteger n, PrimeFactorization pf) throws IllegalArgumentException {
+
+		if (n.signum() < 1) {
+			throw new IllegalArgumentException();
+		}
+		// divide by groups of primes whose product fits in a long, so that one
+		// BigInteger remainder serves the whole group
+		int i = 0;
+		while (n.bitLength() > 63 && i < TRIAL_PRIMES) {
+			int first = i;
+			long product = 1;
+			while (i < TRIAL_PRIMES && product <= Long.MAX_VALUE / PrimeTable.prime(i)) {
+				product *= PrimeTable.prime(i);
+				i++;
+			}
+			long r = n.mod(BigInteger.valueOf(product)).longValue();
+			for (int j = first; j < i; j++) {
+				int q = PrimeTable.prime(j);
+				if (r % q == 0) {
+					n = strip(n, q, pf);
+				}
+			}
+		}
+		split(n, pf);
+	}
+
+	/**
+	 * Factors n, all of whose prime factors are at least TRIAL_BOUND when n
+	 * does not fit in a long.
+	 */
+	private static void split(BigInteger n, PrimeFactorization pf) {
+
+		int[][] scratch = PrimeFactorization.scratch();
+		int[] primes = scratch[0];
+		int[] multiplicities = scratch[1];
+		while (n.bitLength() > 63) {
+			if (n.isProbablePrime(CERTAINTY)) {
+				throw new IllegalArgumentException("prime factor exceeds Integer.MAX_VALUE");
+			}
+			BigInteger d = rho(n);
+			if (d == null) {
+				throw new IllegalArgumentException("no prime factor within Integer.MAX_VALUE found");
+			}
+			BigInteger e = n.divide(d);
+			if (d.compareTo(e) > 0) {
+				BigInteger t = d;
+				d = e;
+				e = t;
+			}
+			if (d.bitLength() > 63) {
+				split(d, pf);
+				split(e, pf);
+				return;
+			}
+			// strip every prime of d from n completely, so that prime powers
+			// cost one split instead of one per exponent
+			int count = PrimeFactorization.getFactoringEngine().factor(d.longValue(), primes, multiplicities);
+			for (int i = 0; i < count; i++) {
+				n = strip(n, primes[i], pf);
+			}
+		}
+		if (n.signum() > 0 && !n.equals(BigInteger.ONE)) {
+			pf.multiply(n.longValue());
+		}
+	}
+
+	/**
+	 * Divides every factor p out of n and records it in pf.
+	 * 
+	 * Precondition: p is a prime dividing n.
+	 * 
+	 * @return n with all factors p removed
+	 */
+	private static BigInteger strip(BigInteger n, int p, PrimeFactorization pf) {
+
+		BigInteger q = BigInteger.valueOf(p);
+		int m = 0;
+		BigInteger[] qr = n.divideAndRemainder(q);
+		while (qr[1].signum() == 0) {
+			n = qr[0];
+			m++;
+			qr = n.divideAndRemainder(q);
+		}
+		pf.add(p, m);
+		return n;
+	}
+
+	/**
+	 * Brent's variant of Pollard's rho on x -> x^2 + c.
+	 * 
+	 * @return a nontrivial divisor of the composite n, or null if none was found
+	 *         within ATTEMPTS * MAX_STEPS steps
+	 */
+	private static BigInteger rho(BigInteger n) {
+
+		final int batch = 128;
+		for (int c = 1; c <= ATTEMPTS; c++) {
+			BigInteger inc = BigInteger.valueOf(c);
+			BigInteger x = BigInteger.ZERO;
+			BigInteger y = BigInteger.valueOf(2);
+			BigInteger ys = y;
+			BigInteger q = BigInteger.ONE;
+			BigInteger g = BigInteger.ONE;
+			long steps = 0;
+			for (int r = 1; g.equals(BigInteger.ONE) && steps < MAX_STEPS; r <<= 1) {
+				x = y;
+				for (int i = 0; i < r; i++) {
+					y = y.multiply(y).add(inc).mod(n);
+				}
+				for (int k = 0; k < r && g.equals(BigInteger.ONE); k += batch) {
+					ys = y;
+					int limit = Math.min(batch, r - k);
+					for (int i = 0; i < limit; i++) {
+						y = y.multiply(y).add(inc).mod(n);
+						q = q.multiply(x.subtract(y).abs()).mod(n);
+					}
+					g = q.gcd(n);
+				}
+				steps += 2L * r;
+			}
+			if (g.equals(n) || g.bitLength() > 63) {
+				// the batch overshot, or collected a high power of the divisor
+				// (which happens on prime powers); replay it one step at a time
+				do {
+					ys = ys.multiply(ys).add(inc).mod(n);
+					g = x.subtract(ys).abs().gcd(n);
+				} while (g.equals(BigInteger.ONE));
+			}
+			if (!g.equals(n) && !g.equals(BigInteger.ONE)) {
+				return g;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,132 @@
+package edu.iastate.cs228.hw3;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Running product of many numbers, kept as one exponent counter per prime so
+ * that any number of threads can multiply into it without a lock. Counters
+ * are LongAdders, so threads hitting the same prime at once do not contend
+ * on a single memory word either. Small primes, which nearly every number
+ * contributes to, live in a fixed array; larger ones in a ConcurrentHashMap.
+ * 
+ * toPrimeFactorization() builds an ordinary PrimeFactorization on demand.
+ * Taken while other threads are still accumulating, it reflects some subset
+ * of the concurrent updates, each of which is either fully in or fully out
+ * for a given prime.
+ * 
+ * @author Andrew Pester
+ *
+ */
+public class ConcurrentFactorAccumulator {
+	/**
+	 * Primes below this bound are counted in the small array.
+	 */
+	private static final int SMALL_BOUND = 1 << 10;
+
+	private final LongAdder[] small = new LongAdder[SMALL_BOUND]; // indexed by prime, null for composites
+	private final ConcurrentHashMap<Integer, LongAdder> large = new ConcurrentHashMap<>();
+
+	/**
+	 * Constructs an accumulator representing 1.
+	 */
+	public ConcurrentFactorAccumulator() {
+
+		for (int p = 2; p < SMALL_BOUND; p = (int) PrimeTable.nextPrime(p)) {
+			small[p] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Multiplies the accumulated product by n. Safe to call from any thread.
+	 * 
+	 * @param n
+	 * @throws IllegalArgumentException if n < 1 or n has a prime factor larger
+	 *                                  than Integer.MAX_VALUE
+	 */
+	public void accumulate(long n) throws IllegalArgumentException {
+
+		if (n < 1) {
+			throw new IllegalArgumentException();
+		}
+		int[][] scratch = PrimeFactorization.scratch();
+		int[] primes = scratch[0];
+		int[] multiplicities = scratch[1];
+		int count = PrimeFactorization.engineFor(n).factor(n, primes, multiplicities);
+		for (int i = 0; i < count; i++) {
+			counter(primes[i]).add(multiplicities[i]);
+		}
+	}
+
+	/**
+	 * Multiplies the accumulated product by the number pf represents. Safe to
+	 * call from any thread, as long as pf itself is not being modified.
+	 * 
+	 * @param pf
+	 */
+	public void accumulate(PrimeFactorization pf) {
+
+		for (PrimeFactorization.FactorCursor c = pf.cursor(); c.next();) {
+			counter(c.prime()).add(c.multiplicity());
+		}
+	}
+
+	/**
+	 * @return the accumulated product
+	 * @throws ArithmeticException if a multiplicity exceeds Integer.MAX_VALUE
+	 */
+	public PrimeFactorization toPrimeFactorization() throws ArithmeticException {
+
+		PrimeFactorization ret = new PrimeFactorization();
+		for (int p = 2; p < SMALL_BOUND; p++) {
+			if (small[p] != null) {
+				appendNonZero(ret, p, small[p].sum());
+			}
+		}
+		Integer[] primes = large.keySet().toArray(new Integer[0]);
+		Arrays.sort(primes);
+		for (Integer p : primes) {
+			appendNonZero(ret, p, large.get(p).sum());
+		}
+		return ret;
+	}
+
+	/**
+	 * Resets the product to 1. Updates running concurrently with reset() may or
+	 * may not survive it.
+	 */
+	public void reset() {
+
+		for (LongAdder a : small) {
+			if (a != null) {
+				a.reset();
+			}
+		}
+		large.clear();
+	}
+
+	// --------------
+	// Helper methods
+	// --------------
+
+	/**
+	 * @return the exponent counter of the prime p, created on first use
+	 */
+	private LongAdder counter(int p) {
+
+		if (p < SMALL_BOUND) {
+			return small[p];
+		}
+		LongAdder ret = large.get(p);
+		// get() first: computeIfAbsent() locks its bin even when the key is present
+		return ret != null ? ret : large.computeIfAbsent(p, k -> new LongAdder());
+	}
+
+	private static void appendNonZero(PrimeFactorization pf, int p, long m) {
+
+		if (m > 0) {
+			pf.append(p, Math.toIntExact(m));
+		}
+	}
+}
@@ -0,0 +1,24 @@
+package edu.iastate.cs228.hw3;
+
+/**
+ * What PrimeFactorizationFormat needs to write a factorization, so that the
+ * linked, array and immutable forms share one formatter.
+ * 
+ * @author Andrew Pester
+ *
+ */
+interface FactorSource {
+
+	/**
+	 * @return number of distinct prime factors
+	 */
+	int size();
+
+	/**
+	 * Calls action with every prime and multiplicity in increasing order of the
+	 * primes.
+	 * 
+	 * @param action
+	 */
+	void forEachFactor(IntIntConsumer action);
+}
@@ -0,0 +1,36 @@
+package edu.iastate.cs228.hw3;
+
+/**
+ * Strategy used by PrimeFactorization to split a long into its prime factors.
+ * The default implementation is PollardRhoEngine; another one can be installed
+ * with PrimeFactorization.setFactoringEngine().
+ * 
+ * @author Andrew Pester
+ *
+ */
+public interface FactoringEngine {
+
+	/**
+	 * Largest number of distinct prime factors a positive long can have
+	 * (2 * 3 * 5 * ... * 47 is the largest primorial below 2^63).
+	 */
+	int MAX_DISTINCT_FACTORS = 15;
+
+	/**
+	 * Factors n and writes its distinct prime factors in increasing order into
+	 * primes, with the matching multiplicities at the same index of
+	 * multiplicities. Both arrays must have room for MAX_DISTINCT_FACTORS
+	 * entries.
+	 * 
+	 * PrimeFactorization passes per-thread buffers here, so an implementation
+	 * must not call PrimeFactorization(long) or multiply(long) itself.
+	 * 
+	 * @param n              number to factor
+	 * @param primes         output array for the primes
+	 * @param multiplicities output array for the multiplicities
+	 * @return number of distinct prime factors written, 0 if n == 1
+	 * @throws IllegalArgumentException if n < 1 or n has a prime factor larger
+	 *                                  than Integer.MAX_VALUE
+	 */
+	int factor(long n, int[] primes, int[] multiplicities) throws IllegalArgumentException;
+}
@@ -0,0 +1,214 @@
+package edu.iastate.cs228.hw3;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded, thread-safe memo of factorizations of longs. Entries are evicted in
+ * least-recently-used order. The key space is split into independently locked
+ * segments so that threads working on different keys rarely contend.
+ * 
+ * The cache is itself a FactoringEngine wrapping another one, so installing
+ * it with PrimeFactorization.setFactoringEngine() puts it in front of every
+ * number the engine factors. An installed FactorizationTable still takes
+ * precedence: numbers it covers are looked up there and never reach the
+ * cache. Cached factors are stored as private int arrays and copied out on
+ * every read, so no caller can change them.
+ * 
+ * @author Andrew Pester
+ *
+ */
+public class FactorizationCache implements FactoringEngine {
+	private static final int SEGMENTS = 16;
+
+	private final FactoringEngine delegate;
+	private final Segment[] segments;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * Constructs a cache in front of the currently installed engine.
+	 * 
+	 * @param capacity maximum number of cached factorizations
+	 * @throws IllegalArgumentException if capacity < 1
+	 */
+	public FactorizationCache(int capacity) throws IllegalArgumentException {
+
+		this(capacity, PrimeFactorization.getFactoringEngine());
+	}
+
+	/**
+	 * @param capacity maximum number of cached factorizations
+	 * @param delegate engine that factors the misses
+	 * @throws IllegalArgumentException if capacity < 1 or delegate == null
+	 */
+	public FactorizationCache(int capacity, FactoringEngine delegate) throws IllegalArgumentException {
+
+		if (capacity < 1 || delegate == null) {
+			throw new IllegalArgumentException();
+		}
+		this.delegate = delegate;
+		int segmentCount = Math.min(SEGMENTS, capacity);
+		segments = new Segment[segmentCount];
+		for (int i = 0; i < segmentCount; i++) {
+			// spread the capacity so that the segments add up to it exactly
+			segments[i] = new Segment(capacity / segmentCount + (i < capacity % segmentCount ? 1 : 0));
+		}
+	}
+
+	/**
+	 * Returns the prime factorization of n, factoring it only on a miss. The
+	 * result is a new object on every call.
+	 * 
+	 * @param n
+	 * @return prime factorization of n
+	 * @throws IllegalArgumentException if n < 1 or n has a prime factor larger
+	 *                                  than Integer.MAX_VALUE
+	 */
+	public PrimeFactorization get(long n) throws IllegalArgumentException {
+
+		int[] factors = lookup(n);
+		PrimeFactorization ret = new PrimeFactorization();
+		for (int i = 0; i < factors.length; i += 2) {
+			ret.append(factors[i], factors[i + 1]);
+		}
+		return ret;
+	}
+
+	@Override
+	public int factor(long n, int[] primes, int[] multiplicities) throws IllegalArgumentException {
+
+		int[] factors = lookup(n);
+		for (int i = 0; i < factors.length; i += 2) {
+			primes[i >> 1] = factors[i];
+			multiplicities[i >> 1] = factors[i + 1];
+		}
+		return factors.length >> 1;
+	}
+
+	/**
+	 * @return number of lookups answered from the cache
+	 */
+	public long hitCount() {
+
+		return hits.sum();
+	}
+
+	/**
+	 * @return number of lookups that had to factor
+	 */
+	public long missCount() {
+
+		return misses.sum();
+	}
+
+	/**
+	 * @return number of entries dropped to stay within capacity
+	 */
+	public long evictionCount() {
+
+		return evictions.sum();
+	}
+
+	/**
+	 * @return number of cached factorizations
+	 */
+	public int size() {
+
+		int ret = 0;
+		for (Segment s : segments) {
+			synchronized (s) {
+				ret += s.size();
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Drops every entry. The counters are kept.
+	 */
+	public void clear() {
+
+		for (Segment s : segments) {
+			synchronized (s) {
+				s.clear();
+			}
+		}
+	}
+
+	// --------------
+	// Helper methods
+	// --------------
+
+	/**
+	 * @return the factors of n as {p1, m1, p2, m2, ...}; never modified
+	 */
+	private int[] lookup(long n) {
+
+		if (n < 1) {
+			throw new IllegalArgumentException();
+		}
+		Long key = n;
+		Segment s = segments[(int) (mix(n) % segments.length)];
+		int[] factors;
+		synchronized (s) {
+			factors = s.get(key);
+		}
+		if (factors != null) {
+			hits.increment();
+			return factors;
+		}
+		misses.increment();
+		// factor outside the lock; two threads missing on the same key both
+		// factor it and store equal results
+		int[] primes = new int[MAX_DISTINCT_FACTORS];
+		int[] multiplicities = new int[MAX_DISTINCT_FACTORS];
+		int count = delegate.factor(n, primes, multiplicities);
+		factors = new int[2 * count];
+		for (int i = 0; i < count; i++) {
+			factors[2 * i] = primes[i];
+			factors[2 * i + 1] = multiplicities[i];
+		}
+		synchronized (s) {
+			s.put(key, factors);
+		}
+		return factors;
+	}
+
+	/**
+	 * Scrambles the bits of n so that arithmetic progressions of keys spread
+	 * over all segments.
+	 */
+	private static long mix(long n) {
+
+		n *= 0x9E3779B97F4A7C15L;
+		return (n ^ (n >>> 32)) & Long.MAX_VALUE;
+	}
+
+	/**
+	 * Access-ordered map that drops its least recently used entry when full.
+	 * Guarded by its own monitor.
+	 */
+	private class Segment extends LinkedHashMap<Long, int[]> {
+		private static final long serialVersionUID = 1L;
+		private final int capacity;
+
+		Segment(int capacity) {
+
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, int[]> eldest) {
+
+			if (size() > capacity) {
+				evictions.increment();
+				return true;
+			}
+			return false;
+		}
+	}
+}
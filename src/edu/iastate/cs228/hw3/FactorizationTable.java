@@ -0,0 +1,379 @@
+package edu.iastate.cs228.hw3;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Smallest-prime-factor table for every number below a fixed bound. Factoring
+ * n < bound then takes one lookup and one division per prime factor.
+ * 
+ * Only odd numbers are stored: entry i holds the smallest prime factor of
+ * 2i + 1, or 0 if 2i + 1 is a prime (or 1). The smallest prime factor of a
+ * composite below 2^32 is below 2^16, so a char per entry is enough and the
+ * table costs one byte per number covered. It is filled by a linear sieve,
+ * which sets every entry exactly once.
+ * 
+ * Building is opt-in: install a table with
+ * PrimeFactorization.setFactorizationTable() and PrimeFactorization(long),
+ * multiply(long) and isPrime() use it for every n below its bound.
+ * 
+ * A table can be saved to a file and mapped back with load(), so that a new
+ * JVM pays for page faults on the entries it touches instead of for a full
+ * sieve, and processes on the same host share the pages. The file is a
+ * 32-byte little-endian header (magic, version, bound, CRC32 of the entries,
+ * reserved) followed by the entries as little-endian chars.
+ * 
+ * @author Andrew Pester
+ *
+ */
+public class FactorizationTable implements FactoringEngine {
+
+	/**
+	 * Largest supported bound, 2^31 - 2: its (bound + 1) / 2 entries are the
+	 * most a char array, and their bytes the most a single mapped buffer, can
+	 * hold. Matches the 2^31 cap of PrimeTable.
+	 */
+	public static final long MAX_BOUND = Integer.MAX_VALUE - 1;
+
+	private static final int MAGIC = 0x54465053; // "SPFT"
+	private static final int VERSION = 1;
+	private static final int HEADER = 32;
+
+	/**
+	 * Entries checked against trial division when a file is loaded.
+	 */
+	private static final int SAMPLES = 64;
+
+	private final long bound; // every n < bound is covered
+	private final CharBuffer spf; // entry i belongs to 2i + 1
+	private final long buildTime; // nanoseconds spent building or loading
+
+	/**
+	 * Sieves the smallest prime factor of every number below bound.
+	 * 
+	 * @param bound
+	 * @throws IllegalArgumentException if bound < 2 or bound > MAX_BOUND
+	 */
+	public FactorizationTable(long bound) throws IllegalArgumentException {
+
+		if (bound < 2 || bound > MAX_BOUND) {
+			throw new IllegalArgumentException();
+		}
+		long start = System.nanoTime();
+		this.bound = bound;
+		spf = CharBuffer.wrap(sieve(bound));
+		buildTime = System.nanoTime() - start;
+	}
+
+	private FactorizationTable(long bound, CharBuffer spf, long buildTime) {
+
+		this.bound = bound;
+		this.spf = spf;
+		this.buildTime = buildTime;
+	}
+
+	// -----------
+	// Persistence
+	// -----------
+
+	/**
+	 * Maps a table saved by save(). The header is validated and a sample of
+	 * entries is checked against trial division; the entries themselves are
+	 * paged in as they are used.
+	 * 
+	 * @param file
+	 * @return the mapped table
+	 * @throws IOException if the file cannot be read or fails validation
+	 */
+	public static FactorizationTable load(Path file) throws IOException {
+
+		return load(file, false);
+	}
+
+	/**
+	 * Maps a table saved by save().
+	 * 
+	 * @param file
+	 * @param verifyChecksum also compare the CRC32 of every entry with the one
+	 *                       in the header, which reads the whole file
+	 * @return the mapped table
+	 * @throws IOException if the file cannot be read or fails validation
+	 */
+	public static FactorizationTable load(Path file, boolean verifyChecksum) throws IOException {
+
+		long start = System.nanoTime();
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+			while (header.hasRemaining()) {
+				if (ch.read(header) < 0) {
+					break;
+				}
+			}
+			header.flip();
+			if (header.remaining() < HEADER || header.getInt() != MAGIC) {
+				throw new IOException(file + " is not a factorization table");
+			}
+			int version = header.getInt();
+			if (version != VERSION) {
+				throw new IOException(file + " has unsupported version " + version);
+			}
+			long bound = header.getLong();
+			long checksum = header.getLong();
+			long bytes = 2 * ((bound + 1) >>> 1);
+			// bound <= MAX_BOUND also keeps the entries within one mappable region
+			if (bound < 2 || bound > MAX_BOUND || ch.size() != HEADER + bytes) {
+				throw new IOException(file + " is truncated or corrupt");
+			}
+			MappedByteBuffer body = ch.map(FileChannel.MapMode.READ_ONLY, HEADER, bytes);
+			if (verifyChecksum) {
+				CRC32 crc = new CRC32();
+				crc.update(body.duplicate());
+				if (crc.getValue() != checksum) {
+					throw new IOException(file + " fails its checksum");
+				}
+			}
+			CharBuffer spf = body.order(ByteOrder.LITTLE_ENDIAN).asCharBuffer();
+			validateSample(spf, file);
+			return new FactorizationTable(bound, spf, System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Maps the table in file if it is valid and covers bound; otherwise builds
+	 * one in memory and tries to save it to file for the next run.
+	 * 
+	 * @param file
+	 * @param bound
+	 * @return a table covering every number below bound
+	 * @throws IllegalArgumentException if bound < 2 or bound > MAX_BOUND
+	 */
+	public static FactorizationTable loadOrBuild(Path file, long bound) throws IllegalArgumentException {
+
+		if (bound < 2 || bound > MAX_BOUND) {
+			throw new IllegalArgumentException();
+		}
+		if (Files.isRegularFile(file)) {
+			try {
+				FactorizationTable t = load(file);
+				if (t.bound >= bound) {
+					return t;
+				}
+			} catch (IOException e) {
+				// fall through and rebuild
+			}
+		}
+		FactorizationTable t = new FactorizationTable(bound);
+		try {
+			t.save(file);
+		} catch (IOException e) {
+			// the table is usable without its file
+		}
+		return t;
+	}
+
+	/**
+	 * Writes the table to file. The data goes to a uniquely named temporary file
+	 * in the same directory first and is then moved into place, so readers never
+	 * map a half-written table and concurrent writers never share one. The
+	 * temporary file is removed if writing fails. Every table that can be built
+	 * can be mapped back by load(): MAX_BOUND keeps its entries within a single
+	 * 2 GB region.
+	 * 
+	 * @param file
+	 * @throws IOException if the file cannot be written
+	 */
+	public void save(Path file) throws IOException {
+
+		Path tmp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+		boolean moved = false;
+		try {
+			CRC32 crc = new CRC32();
+			try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+				ch.position(HEADER);
+				ByteBuffer buf = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+				CharBuffer entries = spf.duplicate();
+				entries.clear();
+				while (entries.hasRemaining()) {
+					buf.clear();
+					while (buf.remaining() >= 2 && entries.hasRemaining()) {
+						buf.putChar(entries.get());
+					}
+					buf.flip();
+					crc.update(buf.duplicate());
+					while (buf.hasRemaining()) {
+						ch.write(buf);
+					}
+				}
+				buf.clear();
+				buf.putInt(MAGIC).putInt(VERSION).putLong(bound).putLong(crc.getValue()).putLong(0);
+				buf.flip();
+				ch.position(0);
+				while (buf.hasRemaining()) {
+					ch.write(buf);
+				}
+				ch.force(true);
+			}
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			moved = true;
+		} finally {
+			if (!moved) {
+				Files.deleteIfExists(tmp);
+			}
+		}
+	}
+
+	@Override
+	public int factor(long n, int[] primes, int[] multiplicities) throws IllegalArgumentException {
+
+		if (n < 1 || n >= bound) {
+			throw new IllegalArgumentException();
+		}
+		int count = 0;
+		int twos = Long.numberOfTrailingZeros(n);
+		if (twos > 0) {
+			primes[0] = 2;
+			multiplicities[0] = twos;
+			count = 1;
+			n >>>= twos;
+		}
+		while (n > 1) {
+			long p = spf.get((int) (n >>> 1));
+			if (p == 0) {
+				p = n;
+			}
+			int m = 0;
+			do {
+				n /= p;
+				m++;
+			} while (n % p == 0);
+			primes[count] = (int) p;
+			multiplicities[count] = m;
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Precondition: covers(n)
+	 * 
+	 * @return true if n is a prime false otherwise
+	 */
+	boolean isPrime(long n) {
+
+		if ((n & 1) == 0) {
+			return n == 2;
+		}
+		return n > 1 && spf.get((int) (n >>> 1)) == 0;
+	}
+
+	/**
+	 * @param n
+	 * @return true if n is covered by this table false otherwise
+	 */
+	public boolean covers(long n) {
+
+		return n > 0 && n < bound;
+	}
+
+	/**
+	 * @return every number below the bound is covered
+	 */
+	public long bound() {
+
+		return bound;
+	}
+
+	/**
+	 * @return nanoseconds it took to build the table, or to map and validate it
+	 *         if it was loaded
+	 */
+	public long buildTimeNanos() {
+
+		return buildTime;
+	}
+
+	/**
+	 * @return bytes taken by the table entries
+	 */
+	public long memoryBytes() {
+
+		return 2L * spf.capacity();
+	}
+
+	@Override
+	public String toString() {
+
+		return "FactorizationTable[bound=" + bound + ", " + (memoryBytes() >> 20) + " MB, built in "
+				+ buildTime / 1000000 + " ms]";
+	}
+
+	// --------------
+	// Helper methods
+	// --------------
+
+	/**
+	 * Compares SAMPLES entries spread over the table with trial division.
+	 * 
+	 * @throws IOException if one of them is wrong
+	 */
+	private static void validateSample(CharBuffer spf, Path file) throws IOException {
+
+		int entries = spf.capacity();
+		for (int k = 1; k <= SAMPLES && k < entries; k++) {
+			int i = (int) ((long) entries * k / (SAMPLES + 1));
+			long n = 2L * i + 1;
+			int expected = 0;
+			for (int p = 3; (long) p * p <= n; p += 2) {
+				if (n % p == 0) {
+					expected = p;
+					break;
+				}
+			}
+			if (n > 1 && spf.get(i) != expected) {
+				throw new IOException(file + " has a wrong entry for " + n);
+			}
+		}
+	}
+
+	/**
+	 * Linear sieve over the odd numbers below bound. Every odd composite c is
+	 * set exactly once, from c / spf(c), so only the odd primes up to
+	 * sqrt(bound) ever need to be kept.
+	 */
+	private static char[] sieve(long bound) {
+
+		char[] spf = new char[(int) ((bound + 1) >>> 1)];
+		int[] primes = new int[64];
+		int count = 0;
+		for (long i = 3; 3 * i < bound; i += 2) {
+			int s = spf[(int) (i >>> 1)];
+			if (s == 0) {
+				s = (int) Math.min(i, Character.MAX_VALUE);
+				if (i * i < bound) {
+					if (count == primes.length) {
+						primes = Arrays.copyOf(primes, 2 * count);
+					}
+					primes[count++] = (int) i;
+				}
+			}
+			for (int k = 0; k < count; k++) {
+				long p = primes[k];
+				if (p > s || i * p >= bound) {
+					break;
+				}
+				spf[(int) ((i * p) >>> 1)] = (char) p;
+			}
+		}
+		return spf;
+	}
+}
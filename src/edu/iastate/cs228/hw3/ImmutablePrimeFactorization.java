@@ -0,0 +1,402 @@
+package edu.iastate.cs228.hw3;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable prime factorization, safe to share between threads without
+ * locking. The factors form a singly linked list in increasing order of the
+ * primes whose nodes are never modified, so the arithmetic operations return
+ * new objects that reuse the unchanged tail of an operand instead of copying
+ * it: only the factors up to the last one that actually changes are
+ * allocated.
+ * 
+ * @author Andrew Pester
+ *
+ */
+public final class ImmutablePrimeFactorization implements Iterable<PrimeFactor>, FactorSource {
+	private static final long OVERFLOW = -1;
+
+	/**
+	 * The number 1.
+	 */
+	public static final ImmutablePrimeFactorization ONE = new ImmutablePrimeFactorization(null, 0);
+
+	private final Node first; // smallest prime factor, null for 1
+	private final int size; // number of distinct prime factors
+	private volatile long value; // 0 until computed; volatile so it is never read half-written
+
+	private ImmutablePrimeFactorization(Node first, int size) {
+
+		this.first = first;
+		this.size = size;
+	}
+
+	// ---------
+	// Factories
+	// ---------
+
+	/**
+	 * Obtains the prime factorization of n with the installed FactorizationTable
+	 * if it covers n, the installed FactoringEngine otherwise.
+	 * 
+	 * @param n
+	 * @return prime factorization of n
+	 * @throws IllegalArgumentException if n < 1 or n has a prime factor larger
+	 *                                  than Integer.MAX_VALUE
+	 */
+	public static ImmutablePrimeFactorization of(long n) throws IllegalArgumentException {
+
+		int[][] scratch = PrimeFactorization.scratch();
+		int[] primes = scratch[0];
+		int[] multiplicities = scratch[1];
+		int count = PrimeFactorization.engineFor(n).factor(n, primes, multiplicities);
+		return build(primes, multiplicities, count, null, count);
+	}
+
+	/**
+	 * Takes a snapshot of a mutable factorization in one pass over its list.
+	 * 
+	 * @param pf
+	 * @return immutable factorization of the number represented by pf
+	 */
+	public static ImmutablePrimeFactorization of(PrimeFactorization pf) {
+
+		int[] primes = new int[pf.size()];
+		int[] multiplicities = new int[primes.length];
+		int count = 0;
+		for (PrimeFactorization.FactorCursor c = pf.cursor(); c.next();) {
+			primes[count] = c.prime();
+			multiplicities[count] = c.multiplicity();
+			count++;
+		}
+		return build(primes, multiplicities, count, null, count);
+	}
+
+	/**
+	 * @return a new mutable factorization holding the same factors
+	 */
+	public PrimeFactorization toPrimeFactorization() {
+
+		PrimeFactorization ret = new PrimeFactorization();
+		for (Node n = first; n != null; n = n.next) {
+			ret.append(n.prime, n.multiplicity);
+		}
+		return ret;
+	}
+
+	// ----------
+	// Arithmetic
+	// ----------
+
+	/**
+	 * @param pf
+	 * @return product of this number and pf, sharing the tail of whichever list
+	 *         is longer
+	 */
+	public ImmutablePrimeFactorization multiply(ImmutablePrimeFactorization pf) {
+
+		return merge(pf, false);
+	}
+
+	/**
+	 * @param n
+	 * @return product of this number and n
+	 * @throws IllegalArgumentException if n < 1 or n has a prime factor larger
+	 *                                  than Integer.MAX_VALUE
+	 */
+	public ImmutablePrimeFactorization multiply(long n) throws IllegalArgumentException {
+
+		return merge(of(n), false);
+	}
+
+	/**
+	 * @param pf
+	 * @return quotient of this number by pf, sharing the part of this list past
+	 *         the largest prime of pf; null if this number is not divisible by pf
+	 */
+	public ImmutablePrimeFactorization dividedBy(ImmutablePrimeFactorization pf) {
+
+		int[] primes = new int[size];
+		int[] multiplicities = new int[size];
+		int count = 0;
+		int removed = 0;
+		Node a = first;
+		for (Node b = pf.first; b != null; b = b.next) {
+			while (a != null && a.prime < b.prime) {
+				primes[count] = a.prime;
+				multiplicities[count] = a.multiplicity;
+				count++;
+				a = a.next;
+			}
+			if (a == null || a.prime != b.prime || a.multiplicity < b.multiplicity) {
+				return null;
+			}
+			if (a.multiplicity > b.multiplicity) {
+				primes[count] = a.prime;
+				multiplicities[count] = a.multiplicity - b.multiplicity;
+				count++;
+			} else {
+				removed++;
+			}
+			a = a.next;
+		}
+		if (pf.size == 0) {
+			return this;
+		}
+		return build(primes, multiplicities, count, a, size - removed);
+	}
+
+	/**
+	 * @param pf
+	 * @return gcd of this number and pf
+	 */
+	public ImmutablePrimeFactorization gcd(ImmutablePrimeFactorization pf) {
+
+		int[] primes = new int[Math.min(size, pf.size)];
+		int[] multiplicities = new int[primes.length];
+		int count = 0;
+		Node a = first;
+		Node b = pf.first;
+		while (a != null && b != null) {
+			if (a.prime < b.prime) {
+				a = a.next;
+			} else if (a.prime > b.prime) {
+				b = b.next;
+			} else {
+				primes[count] = a.prime;
+				multiplicities[count] = Math.min(a.multiplicity, b.multiplicity);
+				count++;
+				a = a.next;
+				b = b.next;
+			}
+		}
+		return build(primes, multiplicities, count, null, count);
+	}
+
+	/**
+	 * @param pf
+	 * @return lcm of this number and pf, sharing the tail of whichever list is
+	 *         longer
+	 */
+	public ImmutablePrimeFactorization lcm(ImmutablePrimeFactorization pf) {
+
+		return merge(pf, true);
+	}
+
+	// -------
+	// Queries
+	// -------
+
+	/**
+	 * @return number of distinct prime factors
+	 */
+	@Override
+	public int size() {
+
+		return size;
+	}
+
+	/**
+	 * @param p
+	 * @return multiplicity of p in this number, 0 if p is not a factor
+	 */
+	public int multiplicity(int p) {
+
+		for (Node n = first; n != null && n.prime <= p; n = n.next) {
+			if (n.prime == p) {
+				return n.multiplicity;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * @return value represented by this factorization, or -1 if
+	 *         valueOverflow()
+	 */
+	public long value() {
+
+		long v = value;
+		if (v == 0) {
+			v = 1;
+			for (Node n = first; n != null && v != OVERFLOW; n = n.next) {
+				v = PrimeFactorization.multiplyValues(v, PrimeFactorization.power(n.prime, n.multiplicity));
+			}
+			value = v;
+		}
+		return v;
+	}
+
+	/**
+	 * @return true if the represented value is too large for a long false
+	 *         otherwise
+	 */
+	public boolean valueOverflow() {
+
+		return value() == OVERFLOW;
+	}
+
+	/**
+	 * The returned iterator hands out a new PrimeFactor per call to next() and
+	 * does not support remove().
+	 */
+	@Override
+	public Iterator<PrimeFactor> iterator() {
+
+		return new Iterator<PrimeFactor>() {
+			private Node cursor = first;
+
+			@Override
+			public boolean hasNext() {
+
+				return cursor != null;
+			}
+
+			@Override
+			public PrimeFactor next() {
+
+				if (cursor == null) {
+					throw new NoSuchElementException();
+				}
+				PrimeFactor ret = new PrimeFactor(cursor.prime, cursor.multiplicity);
+				cursor = cursor.next;
+				return ret;
+			}
+		};
+	}
+
+	@Override
+	public boolean equals(Object o) {
+
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof ImmutablePrimeFactorization) || ((ImmutablePrimeFactorization) o).size != size) {
+			return false;
+		}
+		Node a = first;
+		Node b = ((ImmutablePrimeFactorization) o).first;
+		// shared tails are equal without looking further
+		while (a != b) {
+			if (a.prime != b.prime || a.multiplicity != b.multiplicity) {
+				return false;
+			}
+			a = a.next;
+			b = b.next;
+		}
+		return true;
+	}
+
+	@Override
+	public int hashCode() {
+
+		int h = 1;
+		for (Node n = first; n != null; n = n.next) {
+			h = 31 * (31 * h + n.prime) + n.multiplicity;
+		}
+		return h;
+	}
+
+	/**
+	 * Same format as PrimeFactorization.toString(), e.g. "2 * 3^2 * 17 * 19".
+	 */
+	@Override
+	public String toString() {
+
+		return PrimeFactorizationFormat.format(this, new StringBuilder(8 * size + 1)).toString();
+	}
+
+	/**
+	 * Calls action with every prime and multiplicity in increasing order of the
+	 * primes.
+	 * 
+	 * @param action
+	 */
+	@Override
+	public void forEachFactor(IntIntConsumer action) {
+
+		for (Node n = first; n != null; n = n.next) {
+			action.accept(n.prime, n.multiplicity);
+		}
+	}
+
+	/**
+	 * Immutable list node.
+	 */
+	private static final class Node {
+		final int prime;
+		final int multiplicity;
+		final Node next;
+
+		Node(int prime, int multiplicity, Node next) {
+
+			this.prime = prime;
+			this.multiplicity = multiplicity;
+			this.next = next;
+		}
+	}
+
+	// --------------
+	// Helper methods
+	// --------------
+
+	/**
+	 * Product (lcm == false) or lcm of this and pf. Factors are buffered until
+	 * one list runs out; what is left of the other list becomes the shared tail
+	 * of the result.
+	 */
+	private ImmutablePrimeFactorization merge(ImmutablePrimeFactorization pf, boolean lcm) {
+
+		if (pf.first == null) {
+			return this;
+		}
+		if (first == null) {
+			return pf;
+		}
+		int[] primes = new int[size + pf.size];
+		int[] multiplicities = new int[primes.length];
+		int count = 0;
+		int left = size; // nodes of this list not yet consumed
+		int right = pf.size; // nodes of pf not yet consumed
+		Node a = first;
+		Node b = pf.first;
+		while (a != null && b != null) {
+			if (a.prime < b.prime) {
+				primes[count] = a.prime;
+				multiplicities[count] = a.multiplicity;
+				a = a.next;
+				left--;
+			} else if (a.prime > b.prime) {
+				primes[count] = b.prime;
+				multiplicities[count] = b.multiplicity;
+				b = b.next;
+				right--;
+			} else {
+				primes[count] = a.prime;
+				multiplicities[count] = lcm ? Math.max(a.multiplicity, b.multiplicity)
+						: a.multiplicity + b.multiplicity;
+				a = a.next;
+				b = b.next;
+				left--;
+				right--;
+			}
+			count++;
+		}
+		return a != null ? build(primes, multiplicities, count, a, count + left)
+				: build(primes, multiplicities, count, b, count + right);
+	}
+
+	/**
+	 * Prepends the first count factors to rest, last one first.
+	 */
+	private static ImmutablePrimeFactorization build(int[] primes, int[] multiplicities, int count, Node rest,
+			int size) {
+
+		Node n = rest;
+		for (int i = count - 1; i >= 0; i--) {
+			n = new Node(primes[i], multiplicities[i], n);
+		}
+		return n == null ? ONE : new ImmutablePrimeFactorization(n, size);
+	}
+}
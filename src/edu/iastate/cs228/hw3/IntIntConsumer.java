@@ -0,0 +1,18 @@
+package edu.iastate.cs228.hw3;
+
+/**
+ * Receives one prime factor as a pair of ints, so that the factors of a
+ * PrimeFactorization can be visited without PrimeFactor objects or boxing.
+ * 
+ * @author Andrew Pester
+ *
+ */
+@FunctionalInterface
+public interface IntIntConsumer {
+
+	/**
+	 * @param prime        the prime
+	 * @param multiplicity its multiplicity, at least 1
+	 */
+	void accept(int prime, int multiplicity);
+}
@@ -0,0 +1,119 @@
+package edu.iastate.cs228.hw3;
+
+/**
+ * Montgomery arithmetic modulo a fixed odd n < 2^63. Residues are kept in the
+ * form a * 2^64 mod n so that a modular product costs two 64x64-bit multiplies
+ * and no 128-bit division.
+ * 
+ * @author Andrew Pester
+ *
+ */
+final class Montgomery {
+	final long n; // odd modulus
+	final long one; // 1 in Montgomery form, i.e. 2^64 mod n
+	private final long inverse; // n^-1 mod 2^64
+	private final long r2; // 2^128 mod n
+
+	/**
+	 * Precondition: n is odd and n > 1.
+	 * 
+	 * @param n modulus
+	 */
+	Montgomery(long n) {
+
+		this.n = n;
+		long x = n; // correct to 3 bits since n * n == 1 mod 8
+		for (int i = 0; i < 5; i++) {
+			x *= 2 - n * x;
+		}
+		inverse = x;
+		one = (Long.remainderUnsigned(-1L, n) + 1) % n;
+		long r = one;
+		for (int i = 0; i < 64; i++) {
+			r = add(r, r);
+		}
+		r2 = r;
+	}
+
+	/**
+	 * @param a 0 <= a
+	 * @return Montgomery form of a mod n
+	 */
+	long toMontgomery(long a) {
+
+		return multiply(a % n, r2);
+	}
+
+	/**
+	 * @param a Montgomery form
+	 * @return the ordinary residue in [0, n)
+	 */
+	long fromMontgomery(long a) {
+
+		return reduce(0, a);
+	}
+
+	/**
+	 * @return a * b in Montgomery form, for a and b in Montgomery form
+	 */
+	long multiply(long a, long b) {
+
+		return reduce(multiplyHigh(a, b), a * b);
+	}
+
+	/**
+	 * @return a + b mod n, for 0 <= a, b < n
+	 */
+	long add(long a, long b) {
+
+		return a >= n - b ? a - (n - b) : a + b;
+	}
+
+	/**
+	 * @return a^e in Montgomery form, for a in Montgomery form and e >= 0
+	 */
+	long pow(long a, long e) {
+
+		long r = one;
+		while (e > 0) {
+			if ((e & 1) != 0) {
+				r = multiply(r, a);
+			}
+			a = multiply(a, a);
+			e >>>= 1;
+		}
+		return r;
+	}
+
+	/**
+	 * Montgomery reduction of hi * 2^64 + lo, for hi < n.
+	 * 
+	 * @return (hi * 2^64 + lo) / 2^64 mod n
+	 */
+	private long reduce(long hi, long lo) {
+
+		long m = lo * inverse;
+		// unsigned high word of m * n; m may have its top bit set
+		long mn = multiplyHigh(m, n) + (m < 0 ? n : 0);
+		long t = hi - mn;
+		return t < 0 ? t + n : t;
+	}
+
+	/**
+	 * High 64 bits of the signed 128-bit product x * y (Math.multiplyHigh is not
+	 * available before Java 9).
+	 */
+	static long multiplyHigh(long x, long y) {
+
+		long x1 = x >> 32;
+		long x2 = x & 0xFFFFFFFFL;
+		long y1 = y >> 32;
+		long y2 = y & 0xFFFFFFFFL;
+		long z2 = x2 * y2;
+		long t = x1 * y2 + (z2 >>> 32);
+		long z1 = t & 0xFFFFFFFFL;
+		long z0 = t >> 32;
+		z1 += x2 * y1;
+		return x1 * y1 + z0 + (z1 >> 32);
+	}
+}
@@ -0,0 +1,140 @@
+package edu.iastate.cs228.hw3;
+
+/**
+ * Default factoring engine. Strips the small primes of the PrimeTable by trial
+ * division, then splits what is left with Pollard's rho method (Brent's
+ * variant), using Primality.isPrime() to recognize the prime pieces.
+ * 
+ * @author Andrew Pester
+ *
+ */
+public class PollardRhoEngine implements FactoringEngine {
+
+	/**
+	 * Largest trial divisor, exclusive. A cofactor left below its square has no
+	 * smaller prime factor and is therefore prime.
+	 */
+	private static final int TRIAL_BOUND = 1 << 10;
+
+	@Override
+	public int factor(long n, int[] primes, int[] multiplicities) throws IllegalArgumentException {
+
+		if (n < 1) {
+			throw new IllegalArgumentException();
+		}
+		int count = 0;
+		for (int i = 0; n > 1; i++) {
+			int p = PrimeTable.prime(i);
+			if (p >= TRIAL_BOUND || (long) p * p > n) {
+				break;
+			}
+			if (n % p == 0) {
+				int m = 0;
+				do {
+					n /= p;
+					m++;
+				} while (n % p == 0);
+				primes[count] = p;
+				multiplicities[count] = m;
+				count++;
+			}
+		}
+		if (n == 1) {
+			return count;
+		}
+		if (n < (long) TRIAL_BOUND * TRIAL_BOUND) {
+			return record(n, 1, primes, multiplicities, count);
+		}
+
+		// every factor left is larger than TRIAL_BOUND, so there are at most
+		// log_1024(2^63) < 7 of them on the stack at any time
+		long[] stack = new long[16];
+		int top = 0;
+		stack[top++] = n;
+		while (top > 0) {
+			long m = stack[--top];
+			if (Primality.isPrime(m)) {
+				count = record(m, 1, primes, multiplicities, count);
+			} else {
+				long d = rho(m);
+				stack[top++] = d;
+				stack[top++] = m / d;
+			}
+		}
+		return count;
+	}
+
+	// --------------
+	// Helper methods
+	// --------------
+
+	/**
+	 * Adds prime p with multiplicity m to the first count entries of the output
+	 * arrays, keeping them sorted.
+	 * 
+	 * @return the new number of entries
+	 * @throws IllegalArgumentException if p does not fit in an int
+	 */
+	private static int record(long p, int m, int[] primes, int[] multiplicities, int count) {
+
+		if (p > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("prime factor " + p + " exceeds Integer.MAX_VALUE");
+		}
+		int i = count;
+		while (i > 0 && primes[i - 1] > p) {
+			i--;
+		}
+		if (i > 0 && primes[i - 1] == p) {
+			multiplicities[i - 1] += m;
+			return count;
+		}
+		System.arraycopy(primes, i, primes, i + 1, count - i);
+		System.arraycopy(multiplicities, i, multiplicities, i + 1, count - i);
+		primes[i] = (int) p;
+		multiplicities[i] = m;
+		return count + 1;
+	}
+
+	/**
+	 * Finds a nontrivial divisor of an odd composite n with Brent's cycle
+	 * detection on x -> x^2 + c. The walk is carried out in Montgomery form,
+	 * which does not change the gcds since 2^64 is prime to n.
+	 */
+	private static long rho(long n) {
+
+		final int batch = 128;
+		Montgomery mont = new Montgomery(n);
+		for (long c = 1;; c++) {
+			long x = 0;
+			long y = mont.toMontgomery(2);
+			long ys = y;
+			long q = mont.one;
+			long g = 1;
+			for (int r = 1; g == 1; r <<= 1) {
+				x = y;
+				for (int i = 0; i < r; i++) {
+					y = mont.add(mont.multiply(y, y), c);
+				}
+				for (int k = 0; k < r && g == 1; k += batch) {
+					ys = y;
+					int limit = Math.min(batch, r - k);
+					for (int i = 0; i < limit; i++) {
+						y = mont.add(mont.multiply(y, y), c);
+						q = mont.multiply(q, Math.abs(x - y));
+					}
+					g = PrimeFactorization.binaryGcd(q, n);
+				}
+			}
+			if (g == n) {
+				// the batch overshot; replay it one step at a time
+				do {
+					ys = mont.add(mont.multiply(ys, ys), c);
+					g = PrimeFactorization.binaryGcd(Math.abs(x - ys), n);
+				} while (g == 1);
+			}
+			if (g != n) {
+				return g;
+			}
+		}
+	}
+}
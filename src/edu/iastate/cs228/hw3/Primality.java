@@ -0,0 +1,80 @@
+package edu.iastate.cs228.hw3;
+
+/**
+ * Primality test behind PrimeFactorization.isPrime(). Numbers covered by the
+ * PrimeTable or an installed FactorizationTable are looked up; larger numbers
+ * go through Miller-Rabin in Montgomery form with a witness set that is exact
+ * for every 64-bit input.
+ * 
+ * @author Andrew Pester
+ *
+ */
+final class Primality {
+
+	/**
+	 * Miller-Rabin bases that are exact for every n < 2^32.
+	 */
+	private static final long[] WITNESSES_32 = { 2, 7, 61 };
+
+	/**
+	 * Miller-Rabin bases that are exact for every n < 2^64.
+	 */
+	private static final long[] WITNESSES_64 = { 2, 325, 9375, 28178, 450775, 9780504, 1795265022 };
+
+	private Primality() {
+
+	}
+
+	/**
+	 * @param n
+	 * @return true if n is a prime false otherwise
+	 */
+	static boolean isPrime(long n) {
+
+		int known = PrimeTable.lookup(n);
+		if (known >= 0) {
+			return known == 1;
+		}
+		FactorizationTable t = PrimeFactorization.getFactorizationTable();
+		if (t != null && t.covers(n)) {
+			return t.isPrime(n);
+		}
+		if ((n & 1) == 0 || n % 3 == 0 || n % 5 == 0 || n % 7 == 0) {
+			return false;
+		}
+		return millerRabin(n, n >>> 32 == 0 ? WITNESSES_32 : WITNESSES_64);
+	}
+
+	/**
+	 * Precondition: n is odd and n > 2.
+	 */
+	private static boolean millerRabin(long n, long[] witnesses) {
+
+		Montgomery mont = new Montgomery(n);
+		long minusOne = n - mont.one;
+		long d = n - 1;
+		int s = Long.numberOfTrailingZeros(d);
+		d >>>= s;
+		for (long a : witnesses) {
+			a %= n;
+			if (a == 0) {
+				continue;
+			}
+			long x = mont.pow(mont.toMontgomery(a), d);
+			if (x == mont.one || x == minusOne) {
+				continue;
+			}
+			int r = 1;
+			for (; r < s; r++) {
+				x = mont.multiply(x, x);
+				if (x == minusOne) {
+					break;
+				}
+			}
+			if (r == s) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
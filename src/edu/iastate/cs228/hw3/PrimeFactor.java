@@ -40,10 +40,6 @@ public class PrimeFactor
 	@Override
 	public String toString() 
 	{
-		if (multiplicity == 1) {
-			return prime + "";
-		}else {
-			return prime+"^"+multiplicity;
-		}
+		return PrimeFactorizationFormat.appendFactor(new StringBuilder(16), prime, multiplicity).toString();
 	}
 }
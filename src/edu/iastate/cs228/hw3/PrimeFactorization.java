@@ -6,14 +6,25 @@ package edu.iastate.cs228.hw3;
  *
  */
 
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
 import java.util.ListIterator;
 import java.util.NoSuchElementException;
-
-public class PrimeFactorization implements Iterable<PrimeFactor> {
+import java.util.PrimitiveIterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.ObjLongConsumer;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+public class PrimeFactorization implements Iterable<PrimeFactor>, FactorSource {
 	private static final long OVERFLOW = -1;
+	private static final double LN_2 = Math.log(2);
 	private long value; // the factored integer
 						// it is set to OVERFLOW when the number is greater than 2^63-1, the
 						// largest number representable by the type long.
+	private boolean dirty; // true when value has to be recomputed from the list
 
 	/**
 	 * Reference to dummy node at the head.
@@ -27,6 +38,45 @@ public class PrimeFactorization implements Iterable<PrimeFactor> {
 
 	private int size; // number of distinct prime factors
 
+	/**
+	 * Number of changes made to the list, checked by iterators and cursors to
+	 * fail fast when the list changes under them.
+	 */
+	private int modCount;
+
+	/**
+	 * Last result of snapshot(), valid while modCount == snapshotModCount.
+	 */
+	private ImmutablePrimeFactorization snapshot;
+	private int snapshotModCount;
+
+	/**
+	 * Engine used by PrimeFactorization(long) and multiply(long).
+	 */
+	private static volatile FactoringEngine engine = new PollardRhoEngine();
+
+	/**
+	 * Optional table used instead of the engine for every n below its bound.
+	 */
+	private static volatile FactorizationTable table;
+
+	/**
+	 * Per-thread output buffers for the engine: {primes, multiplicities}.
+	 */
+	private static final ThreadLocal<int[][]> SCRATCH = ThreadLocal
+			.withInitial(() -> new int[2][FactoringEngine.MAX_DISTINCT_FACTORS]);
+
+	/**
+	 * Inputs per task below which factorAll() stops splitting.
+	 */
+	private static final int BATCH_THRESHOLD = 256;
+
+	/**
+	 * Numbers per segment in factorRange(); the remaining cofactors of a
+	 * segment (8 bytes each) stay within a typical L2 cache.
+	 */
+	private static final int SEGMENT_LENGTH = 1 << 14;
+
 	// ------------
 	// Constructors
 	// ------------
@@ -44,15 +94,17 @@ public class PrimeFactorization implements Iterable<PrimeFactor> {
 		head.next = tail;
 		tail.previous = head;
 		size = 0;
+		value = 1;
 	}
 
 	/**
 	 * Obtains the prime factorization of n and creates a doubly linked list to
-	 * store the result. Follows the direct search factorization algorithm in
-	 * Section 1.2 of the project description.
+	 * store the result. The factoring itself is delegated to the installed
+	 * FactoringEngine.
 	 * 
 	 * @param n
-	 * @throws IllegalArgumentException if n < 1
+	 * @throws IllegalArgumentException if n < 1 or n has a prime factor larger
+	 *                                  than Integer.MAX_VALUE
 	 */
 	public PrimeFactorization(long n) throws IllegalArgumentException {
 
@@ -63,13 +115,14 @@ public class PrimeFactorization implements Iterable<PrimeFactor> {
 		if (n < 1) {
 			throw new IllegalArgumentException();
 		}
-		for (int i = 2; i <= n; i++) {
-			while (n % i == 0) {
-				add(i, 1);
-				n /= i;
-			}
+		int[][] scratch = scratch();
+		int[] primes = scratch[0];
+		int[] multiplicities = scratch[1];
+		int count = engineFor(n).factor(n, primes, multiplicities);
+		for (int i = 0; i < count; i++) {
+			addTrusted(primes[i], multiplicities[i]);
 		}
-		value = value();
+		value = n;
 	}
 
 	/**
@@ -84,12 +137,25 @@ public class PrimeFactorization implements Iterable<PrimeFactor> {
 		tail = new Node();
 		head.next = tail;
 		tail.previous = head;
-		PrimeFactorizationIterator I = pf.iterator();
-		while (I.hasNext()) {
-			PrimeFactor tmp = I.next();
-			add(tmp.prime, tmp.multiplicity);
+		for (Node n = pf.head.next; n != pf.tail; n = n.next) {
+			append(n.pFactor.prime, n.pFactor.multiplicity);
 		}
-		value = value();
+		value = pf.value();
+	}
+
+	/**
+	 * Obtains the prime factorization of a number that may be too large for a
+	 * long. Pieces that fit in a long are factored by the installed
+	 * FactoringEngine.
+	 * 
+	 * @param n
+	 * @throws IllegalArgumentException if n < 1 or n has a prime factor larger
+	 *                                  than Integer.MAX_VALUE
+	 */
+	public PrimeFactorization(BigInteger n) throws IllegalArgumentException {
+
+		this();
+		BigFactorizer.factor(n, this);
 	}
 
 	/**
@@ -104,11 +170,171 @@ public class PrimeFactorization implements Iterable<PrimeFactor> {
 		tail = new Node();
 		head.next = tail;
 		tail.previous = head;
-		PrimeFactorizationIterator I = this.iterator();
+		value = 1;
 		for (int i = 0; i < pfList.length; i++) {
-			I.add(pfList[i]);
+			PrimeFactor pf = pfList[i];
+			if (size > 0 && pf.prime < tail.previous.pFactor.prime) {
+				throw new IllegalArgumentException();
+			}
+			link(tail.previous, new Node(pf));
+			size++;
+			multiplyValue(pf.prime, pf.multiplicity);
+		}
+
+	}
+
+	// ----------------
+	// Factoring Engine
+	// ----------------
+
+	/**
+	 * @return the engine used to factor long integers
+	 */
+	public static FactoringEngine getFactoringEngine() {
+
+		return engine;
+	}
+
+	/**
+	 * Installs the engine used by PrimeFactorization(long) and multiply(long).
+	 * 
+	 * @param e
+	 * @throws IllegalArgumentException if e == null
+	 */
+	public static void setFactoringEngine(FactoringEngine e) throws IllegalArgumentException {
+
+		if (e == null) {
+			throw new IllegalArgumentException();
 		}
+		engine = e;
+	}
+
+	/**
+	 * @return the installed smallest-prime-factor table, or null if none
+	 */
+	public static FactorizationTable getFactorizationTable() {
+
+		return table;
+	}
+
+	/**
+	 * Installs a smallest-prime-factor table. PrimeFactorization(long),
+	 * multiply(long) and isPrime() use it for every n it covers and fall back to
+	 * the engine otherwise.
+	 * 
+	 * @param t table to use, or null to use the engine alone
+	 */
+	public static void setFactorizationTable(FactorizationTable t) {
+
+		table = t;
+	}
+
+	// -------------------
+	// Batch Factorization
+	// -------------------
+
+	/**
+	 * Factors every input in parallel on the common fork-join pool.
+	 * 
+	 * @param inputs
+	 * @return result[i] is the prime factorization of inputs[i]
+	 * @throws IllegalArgumentException if some inputs[i] < 1 or has a prime factor
+	 *                                  larger than Integer.MAX_VALUE
+	 */
+	public static PrimeFactorization[] factorAll(long[] inputs) throws IllegalArgumentException {
 
+		return factorAll(inputs, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Factors every input in parallel on the given pool. The inputs are split in
+	 * halves until a range has at most BATCH_THRESHOLD of them; each worker
+	 * then factors its range with its own scratch buffers.
+	 * 
+	 * @param inputs
+	 * @param pool
+	 * @return result[i] is the prime factorization of inputs[i]
+	 * @throws IllegalArgumentException if some inputs[i] < 1 or has a prime factor
+	 *                                  larger than Integer.MAX_VALUE
+	 */
+	public static PrimeFactorization[] factorAll(long[] inputs, ForkJoinPool pool)
+			throws IllegalArgumentException {
+
+		PrimeFactorization[] ret = new PrimeFactorization[inputs.length];
+		pool.invoke(new FactorTask(inputs, ret, 0, inputs.length));
+		return ret;
+	}
+
+	/**
+	 * Factors every element of the stream in parallel on the common fork-join
+	 * pool, in encounter order.
+	 * 
+	 * @param inputs
+	 * @return result[i] is the prime factorization of the i-th element
+	 * @throws IllegalArgumentException if some element is < 1 or has a prime
+	 *                                  factor larger than Integer.MAX_VALUE
+	 */
+	public static PrimeFactorization[] factorAll(LongStream inputs) throws IllegalArgumentException {
+
+		return factorAll(inputs.toArray());
+	}
+
+	/**
+	 * Factors every n in [from, to) and passes each factorization, with its n,
+	 * to action in increasing order of n. The range is processed in segments of
+	 * SEGMENT_LENGTH numbers: each prime up to the square root of the segment's
+	 * end is divided out of all its multiples in the segment at once, so
+	 * memory stays bounded however long the range is.
+	 * 
+	 * @param from   first number, at least 1
+	 * @param to     end of the range, exclusive
+	 * @param action
+	 * @throws IllegalArgumentException if from < 1 or to < from, or a number in
+	 *                                  the range has a prime factor larger than
+	 *                                  Integer.MAX_VALUE
+	 */
+	public static void factorRange(long from, long to, ObjLongConsumer<? super PrimeFactorization> action)
+			throws IllegalArgumentException {
+
+		if (from < 1 || to < from) {
+			throw new IllegalArgumentException();
+		}
+		for (long lo = from; lo < to;) {
+			long hi = lo + Math.min(SEGMENT_LENGTH, to - lo);
+			PrimeFactorization[] segment = factorSegment(lo, hi);
+			for (int i = 0; i < segment.length; i++) {
+				action.accept(segment[i], lo + i);
+			}
+			lo = hi;
+		}
+	}
+
+	/**
+	 * Same as factorRange(from, to, action) but as an ordered stream; the i-th
+	 * element is the factorization of from + i. Segments are factored as the
+	 * stream is consumed, and independently of each other, so calling
+	 * parallel() on the result factors them on all cores.
+	 * 
+	 * @param from first number, at least 1
+	 * @param to   end of the range, exclusive
+	 * @return stream of the prime factorizations of from, from + 1, ..., to - 1
+	 * @throws IllegalArgumentException if from < 1 or to < from; while the
+	 *                                  stream runs, if a number has a prime
+	 *                                  factor larger than Integer.MAX_VALUE
+	 */
+	public static Stream<PrimeFactorization> factorRange(long from, long to) throws IllegalArgumentException {
+
+		if (from < 1 || to < from) {
+			throw new IllegalArgumentException();
+		}
+		if (from == to) {
+			return Stream.empty();
+		}
+		long segments = (to - from - 1) / SEGMENT_LENGTH + 1;
+		return LongStream.range(0, segments).mapToObj(k -> {
+			long lo = from + k * SEGMENT_LENGTH;
+			return factorSegment(lo, lo + Math.min(SEGMENT_LENGTH, to - lo));
+		}).flatMap(Arrays::stream);
 	}
 
 	// --------------
@@ -116,25 +342,17 @@ public class PrimeFactorization implements Iterable<PrimeFactor> {
 	// --------------
 
 	/**
-	 * Test if a number is a prime or not. Check iteratively from 2 to the largest
-	 * integer not exceeding the square root of n to see if it divides n.
+	 * Test if a number is a prime or not. Numbers below PrimeTable.limit() (the
+	 * shared sieve, which grows up to its memory limit) or below the bound of an
+	 * installed FactorizationTable are looked up; larger ones go through a
+	 * Miller-Rabin test that is deterministic for every long.
 	 * 
 	 * @param n
 	 * @return true if n is a prime false otherwise
 	 */
 	public static boolean isPrime(long n) {
 
-		if (n == 1) {
-			return false;
-		}
-		for (int i = 2; i < n; i++) {
-			for (int j = 0; i * j <= n; j++) {
-				if (i * j == n) {
-					return false;
-				}
-			}
-		}
-		return true;
+		return Primality.isPrime(n);
 	}
 
 	// ---------------------------
@@ -156,13 +374,16 @@ public class PrimeFactorization implements Iterable<PrimeFactor> {
 		if (n < 1) {
 			throw new IllegalArgumentException();
 		}
-		for (int i = 2; i <= n; i++) {
-			while (n % i == 0) {
-				add(i, 1);
-				n /= i;
-			}
+		int[][] scratch = scratch();
+		int[] primes = scratch[0];
+		int[] multiplicities = scratch[1];
+		int count = engineFor(n).factor(n, primes, multiplicities);
+		for (int i = 0; i < count; i++) {
+			addTrusted(primes[i], multiplicities[i]);
+		}
+		if (!dirty && value != OVERFLOW) {
+			value = multiplyValues(value, n);
 		}
-
 	}
 
 	/**
@@ -170,16 +391,33 @@ public class PrimeFactorization implements Iterable<PrimeFactor> {
 	 * form. Traverse both linked lists and store the result in this list object.
 	 * See Section 3.1 in the project description for details of algorithm.
 	 * 
+	 * Both lists are sorted, so this is a single merge: nodes for primes missing
+	 * here are linked in at the merge position without rechecking primality,
+	 * and common primes get their multiplicities added.
+	 * 
 	 * @param pf
 	 */
 	public void multiply(PrimeFactorization pf) {
 
-		PrimeFactorizationIterator I = pf.iterator();
-		while (I.hasNext()) {
-			Node tmp = new Node(I.next());
-			add(tmp.pFactor.prime, tmp.pFactor.multiplicity);
+		long product = multiplyValues(value(), pf.value());
+		Node a = head.next;
+		Node b = pf.head.next;
+		while (b != pf.tail) {
+			PrimeFactor f = b.pFactor;
+			if (a == tail || a.pFactor.prime > f.prime) {
+				link(a.previous, new Node(f.prime, f.multiplicity));
+				size++;
+				b = b.next;
+			} else if (a.pFactor.prime == f.prime) {
+				a.pFactor.multiplicity += f.multiplicity;
+				modCount++;
+				a = a.next;
+				b = b.next;
+			} else {
+				a = a.next;
+			}
 		}
-
+		value = product;
 	}
 
 	/**
@@ -191,18 +429,8 @@ public class PrimeFactorization implements Iterable<PrimeFactor> {
 	 */
 	public static PrimeFactorization multiply(PrimeFactorization pf1, PrimeFactorization pf2) {
 
-		PrimeFactorizationIterator i = pf1.iterator();
-		PrimeFactorizationIterator j = pf2.iterator();
-		PrimeFactorization ret = new PrimeFactorization();
-		while (i.hasNext()) {
-			PrimeFactor p1 = i.next();
-			ret.add(p1.prime, p1.multiplicity);
-		}
-		while (j.hasNext()) {
-			PrimeFactor p2 = j.next();
-			ret.add(p2.prime, p2.multiplicity);
-		}
-
+		PrimeFactorization ret = new PrimeFactorization(pf1);
+		ret.multiply(pf2);
 		return ret;
 	}
 
@@ -211,6 +439,10 @@ public class PrimeFactorization implements Iterable<PrimeFactor> {
 	 * if divisible. No update otherwise. Refer to Section 3.2 in the project
 	 * description for details.
 	 * 
+	 * Divisibility is decided by isDivisibleBy(), so this also works when v
+	 * overflows. If n divides v, every prime of n is on the list, so n is
+	 * factored by dividing those primes out of it rather than by the engine.
+	 * 
 	 * @param n
 	 * @return true if divisible false if not divisible
 	 * @throws IllegalArgumentException if n <= 0
@@ -220,18 +452,28 @@ public class PrimeFactorization implements Iterable<PrimeFactor> {
 		if (n <= 0) {
 			throw new IllegalArgumentException();
 		}
-		if (value() % n == 0) {
-			PrimeFactorization copy = new PrimeFactorization(value() / n);
-			clearList();
-			PrimeFactorizationIterator I = copy.iterator();
-			for (int i = 0; i < copy.size; i++) {
-				PrimeFactor p = I.next();
-				add(p.prime, p.multiplicity);
-			}
-			return true;
-		} else {
+		if (!isDivisibleBy(n)) {
 			return false;
 		}
+		for (Node c = head.next; c != tail && n > 1; c = c.next) {
+			int p = c.pFactor.prime;
+			int e = 0;
+			while (n % p == 0) {
+				n /= p;
+				e++;
+			}
+			if (e == c.pFactor.multiplicity) {
+				unlink(c);
+				size--;
+			} else if (e > 0) {
+				c.pFactor.multiplicity -= e;
+				modCount++;
+			}
+			if (e > 0) {
+				divideValue(p, e);
+			}
+		}
+		return true;
 	}
 
 	/**
@@ -240,28 +482,52 @@ public class PrimeFactorization implements Iterable<PrimeFactor> {
 	 * prime factors that disappear after the division. No update if this number is
 	 * not divisible by pf. Algorithm details are given in Section 3.2.
 	 * 
+	 * Works on the multiplicities alone, so it is exact even when either value
+	 * overflows: one pass over both lists checks divisibility, a second one
+	 * subtracts.
+	 * 
 	 * @param pf
 	 * @return true if divisible by pf false otherwise
 	 */
 	public boolean dividedBy(PrimeFactorization pf) {
 
-		if (this.value() != -1 && pf.value() != -1 && this.value() < pf.value) {
-			return false;
-		}
-		if (this.value() != -1 && pf.value() == -1) {
-			return false;
+		// every prime of pf must occur here at least as often
+		Node a = head.next;
+		for (Node b = pf.head.next; b != pf.tail; b = b.next) {
+			while (a != tail && a.pFactor.prime < b.pFactor.prime) {
+				a = a.next;
+			}
+			if (a == tail || a.pFactor.prime != b.pFactor.prime
+					|| a.pFactor.multiplicity < b.pFactor.multiplicity) {
+				return false;
+			}
 		}
-		if (this.value() % pf.value() == 0) {
-			PrimeFactorization copy = new PrimeFactorization(value() / pf.value());
+		if (pf == this) {
 			clearList();
-			PrimeFactorizationIterator I = copy.iterator();
-			while (I.hasNext()) {
-				PrimeFactor tmp = I.next();
-				add(tmp.prime, tmp.multiplicity);
-			}
 			return true;
 		}
-		return false;
+		if (value() == OVERFLOW) {
+			dirty = true;
+		} else {
+			value /= pf.value();
+		}
+		a = head.next;
+		for (Node b = pf.head.next; b != pf.tail; b = b.next) {
+			while (a.pFactor.prime < b.pFactor.prime) {
+				a = a.next;
+			}
+			Node next = a.next;
+			int m = a.pFactor.multiplicity - b.pFactor.multiplicity;
+			if (m == 0) {
+				unlink(a);
+				size--;
+			} else {
+				a.pFactor.multiplicity = m;
+				modCount++;
+			}
+			a = next;
+		}
+		return true;
 	}
 
 	/**
@@ -277,14 +543,83 @@ public class PrimeFactorization implements Iterable<PrimeFactor> {
 	 */
 	public static PrimeFactorization dividedBy(PrimeFactorization pf1, PrimeFactorization pf2) {
 
-		if (pf2.value() == 0) {
-			return pf1;
+		PrimeFactorization ret = new PrimeFactorization(pf1);
+		if (ret.dividedBy(pf2)) {
+			return ret;
 		}
-		if (pf1.value() % pf2.value() == 0) {
-			PrimeFactorization copy = new PrimeFactorization(pf1.value() / pf2.value());
-			return copy;
+		return null;
+	}
+
+	// -----------------
+	// Modular Reduction
+	// -----------------
+
+	/**
+	 * Computes v mod m from the factors, without computing v: every p^e is
+	 * raised modulo m and the powers are multiplied together. For m = 2^s * q
+	 * with q odd, the odd part uses Montgomery multiplication modulo q and the
+	 * power of 2 plain wrapping long multiplication; the two residues are
+	 * combined by the Chinese remainder theorem. O(size() * log e) products,
+	 * and works when v overflows.
+	 * 
+	 * @param m
+	 * @return v mod m
+	 * @throws IllegalArgumentException if m < 1
+	 */
+	public long mod(long m) throws IllegalArgumentException {
+
+		if (m < 1) {
+			throw new IllegalArgumentException();
+		}
+		if (!valueOverflow()) {
+			return value() % m;
+		}
+		int s = Long.numberOfTrailingZeros(m);
+		long q = m >> s;
+		long mask = (1L << s) - 1; // m < 2^63, so s <= 62
+
+		long oddPart = 0;
+		if (q > 1) {
+			Montgomery mont = new Montgomery(q);
+			long acc = mont.one;
+			for (Node n = head.next; n != tail; n = n.next) {
+				long base = mont.toMontgomery(n.pFactor.prime);
+				acc = mont.multiply(acc, mont.pow(base, n.pFactor.multiplicity));
+			}
+			oddPart = mont.fromMontgomery(acc);
+		}
+
+		long evenPart = 0;
+		if (s > 0) {
+			evenPart = 1;
+			for (Node n = head.next; n != tail && evenPart != 0; n = n.next) {
+				evenPart = evenPart * powerMod2(n.pFactor.prime, n.pFactor.multiplicity, mask) & mask;
+			}
+		}
+
+		if (s == 0) {
+			return oddPart;
+		}
+		if (q == 1) {
+			return evenPart;
 		}
-		return pf1;
+		// x = oddPart + q * t with q * t == evenPart - oddPart mod 2^s
+		long inverse = q; // q^-1 mod 2^64 by Newton's iteration, correct to 3 bits to start
+		for (int i = 0; i < 5; i++) {
+			inverse *= 2 - q * inverse;
+		}
+		long t = (evenPart - oddPart) * inverse & mask;
+		return oddPart + q * t;
+	}
+
+	/**
+	 * @param n
+	 * @return true if n divides the represented integer v false otherwise
+	 * @throws IllegalArgumentException if n < 1
+	 */
+	public boolean isDivisibleBy(long n) throws IllegalArgumentException {
+
+		return mod(n) == 0;
 	}
 
 	// -----------------------
@@ -293,10 +628,10 @@ public class PrimeFactorization implements Iterable<PrimeFactor> {
 
 	/**
 	 * Computes the greatest common divisor (gcd) of the represented integer v and
-	 * an input integer n. Returns the result as a PrimeFactor object. Calls the
-	 * method Euclidean() if this.value != OVERFLOW.
-	 * 
-	 * It is more efficient to factorize the gcd than n, which can be much greater.
+	 * an input integer n. Every prime of the gcd is a prime of this list, so
+	 * instead of factoring anything each p^m on the list is divided out of n as
+	 * far as it goes. This takes O(size() + log n) divisions, and works when
+	 * the value overflows.
 	 * 
 	 * @param n
 	 * @return prime factorization of gcd
@@ -307,19 +642,25 @@ public class PrimeFactorization implements Iterable<PrimeFactor> {
 		if (n < 1) {
 			throw new IllegalArgumentException();
 		}
-		if (this.value() != OVERFLOW) {
-			PrimeFactorization ret = new PrimeFactorization(Euclidean(value(), n));
-			return ret;
+		PrimeFactorization ret = new PrimeFactorization();
+		for (Node c = head.next; c != tail && n > 1; c = c.next) {
+			int p = c.pFactor.prime;
+			int m = 0;
+			while (m < c.pFactor.multiplicity && n % p == 0) {
+				n /= p;
+				m++;
+			}
+			if (m > 0) {
+				ret.append(p, m);
+			}
 		}
-		return null;
-		// only does this if the value is == OVERFLOW wasn't specified what you wanted
-		// returned in this instance.
+		return ret;
 	}
 
 	/**
-	 * Implements the Euclidean algorithm to compute the gcd of two natural numbers
-	 * m and n. The algorithm is described in Section 4.1 of the project
-	 * description.
+	 * Computes the gcd of two natural numbers m and n. Uses Stein's binary gcd
+	 * algorithm, which replaces the 64-bit divisions of the Euclidean algorithm
+	 * with shifts and subtractions.
 	 * 
 	 * @param m
 	 * @param n
@@ -331,15 +672,7 @@ public class PrimeFactorization implements Iterable<PrimeFactor> {
 		if (m < 1 || n < 1) {
 			throw new IllegalArgumentException();
 		}
-		long remainder;
-		while (m % n != 0) {
-			remainder = m % n;
-			m = n;
-			n = remainder;
-
-		}
-
-		return n;
+		return binaryGcd(m, n);
 	}
 
 	/**
@@ -350,34 +683,349 @@ public class PrimeFactorization implements Iterable<PrimeFactor> {
 	 * @param pf
 	 * @return prime factorization of the gcd
 	 */
-	public PrimeFactorization gcd(PrimeFactorization pf) {
+	public PrimeFactorization gcd(PrimeFactorization pf) {
+
+		PrimeFactorization ret = new PrimeFactorization();
+		Node a = head.next;
+		Node b = pf.head.next;
+		while (a != tail && b != pf.tail) {
+			int p = a.pFactor.prime;
+			int q = b.pFactor.prime;
+			if (p < q) {
+				a = a.next;
+			} else if (p > q) {
+				b = b.next;
+			} else {
+				ret.append(p, Math.min(a.pFactor.multiplicity, b.pFactor.multiplicity));
+				a = a.next;
+				b = b.next;
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * 
+	 * @param pf1
+	 * @param pf2
+	 * @return prime factorization of the gcd of two numbers represented by pf1 and
+	 *         pf2
+	 */
+	public static PrimeFactorization gcd(PrimeFactorization pf1, PrimeFactorization pf2) {
+
+		PrimeFactorization ret = pf1.gcd(pf2);
+		return ret;
+	}
+
+	/**
+	 * Computes the gcd of all the given factorizations by merging them pairwise
+	 * in a balanced tree. None of them is changed.
+	 * 
+	 * @param pfs
+	 * @return prime factorization of the gcd
+	 * @throws IllegalArgumentException if pfs is empty
+	 */
+	public static PrimeFactorization gcd(PrimeFactorization... pfs) throws IllegalArgumentException {
+
+		if (pfs.length == 0) {
+			throw new IllegalArgumentException();
+		}
+		return reduce(pfs, 0, pfs.length, false);
+	}
+
+	// ---------------------
+	// Least Common Multiple
+	// ---------------------
+
+	/**
+	 * Computes the least common multiple of the values represented by this
+	 * object and pf by traversing the two lists, taking the larger multiplicity
+	 * of every prime. Works when either value overflows.
+	 * 
+	 * @param pf
+	 * @return prime factorization of the lcm
+	 */
+	public PrimeFactorization lcm(PrimeFactorization pf) {
+
+		PrimeFactorization ret = new PrimeFactorization();
+		Node a = head.next;
+		Node b = pf.head.next;
+		while (a != tail || b != pf.tail) {
+			if (b == pf.tail || a != tail && a.pFactor.prime < b.pFactor.prime) {
+				ret.append(a.pFactor.prime, a.pFactor.multiplicity);
+				a = a.next;
+			} else if (a == tail || a.pFactor.prime > b.pFactor.prime) {
+				ret.append(b.pFactor.prime, b.pFactor.multiplicity);
+				b = b.next;
+			} else {
+				ret.append(a.pFactor.prime, Math.max(a.pFactor.multiplicity, b.pFactor.multiplicity));
+				a = a.next;
+				b = b.next;
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * 
+	 * @param pf1
+	 * @param pf2
+	 * @return prime factorization of the lcm of two numbers represented by pf1 and
+	 *         pf2
+	 */
+	public static PrimeFactorization lcm(PrimeFactorization pf1, PrimeFactorization pf2) {
+
+		return pf1.lcm(pf2);
+	}
+
+	/**
+	 * Computes the lcm of all the given factorizations by merging them pairwise
+	 * in a balanced tree. None of them is changed.
+	 * 
+	 * @param pfs
+	 * @return prime factorization of the lcm
+	 * @throws IllegalArgumentException if pfs is empty
+	 */
+	public static PrimeFactorization lcm(PrimeFactorization... pfs) throws IllegalArgumentException {
+
+		if (pfs.length == 0) {
+			throw new IllegalArgumentException();
+		}
+		return reduce(pfs, 0, pfs.length, true);
+	}
+
+	// ----------------
+	// Powers and Roots
+	// ----------------
+
+	/**
+	 * Raises the number represented by this object to the k-th power by scaling
+	 * every multiplicity, in one pass over the list regardless of k. Works when
+	 * the value overflows. Nothing changes if an exception is thrown.
+	 * 
+	 * @param k
+	 * @throws IllegalArgumentException if k < 0
+	 * @throws ArithmeticException      if a multiplicity would exceed
+	 *                                  Integer.MAX_VALUE
+	 */
+	public void pow(int k) throws IllegalArgumentException, ArithmeticException {
+
+		if (k < 0) {
+			throw new IllegalArgumentException();
+		}
+		if (k == 0) {
+			clearList();
+			return;
+		}
+		for (Node n = head.next; n != tail; n = n.next) {
+			if (n.pFactor.multiplicity > Integer.MAX_VALUE / k) {
+				throw new ArithmeticException("multiplicity overflow");
+			}
+		}
+		for (Node n = head.next; n != tail; n = n.next) {
+			n.pFactor.multiplicity *= k;
+		}
+		modCount++;
+		if (!dirty) {
+			value = power(value, k);
+		}
+	}
+
+	/**
+	 * 
+	 * @param pf
+	 * @param k
+	 * @return prime factorization of the k-th power of the number pf represents
+	 * @throws IllegalArgumentException if k < 0
+	 * @throws ArithmeticException      if a multiplicity would exceed
+	 *                                  Integer.MAX_VALUE
+	 */
+	public static PrimeFactorization pow(PrimeFactorization pf, int k)
+			throws IllegalArgumentException, ArithmeticException {
+
+		PrimeFactorization ret = new PrimeFactorization(pf);
+		ret.pow(k);
+		return ret;
+	}
+
+	/**
+	 * A number n is a perfect power if n = a^k for some integers a > 1 and
+	 * k > 1, i.e. if the gcd of its multiplicities is at least 2. Does not use
+	 * value(), so it also answers for overflowed values.
+	 * 
+	 * @return true if the represented number is a perfect power false otherwise
+	 */
+	public boolean isPerfectPower() {
+
+		return size > 0 && multiplicityGcd() > 1;
+	}
+
+	/**
+	 * Computes the k-th root by dividing every multiplicity by k, provided the
+	 * root is an integer. Does not use value().
+	 * 
+	 * @param k
+	 * @return prime factorization of the k-th root, or null if the represented
+	 *         number is not a k-th power
+	 * @throws IllegalArgumentException if k < 1
+	 */
+	public PrimeFactorization nthRoot(int k) throws IllegalArgumentException {
+
+		if (k < 1) {
+			throw new IllegalArgumentException();
+		}
+		if (size > 0 && multiplicityGcd() % k != 0) {
+			return null;
+		}
+		PrimeFactorization ret = new PrimeFactorization();
+		for (Node n = head.next; n != tail; n = n.next) {
+			ret.append(n.pFactor.prime, n.pFactor.multiplicity / k);
+		}
+		return ret;
+	}
+
+	// --------------------
+	// Arithmetic Functions
+	// --------------------
+
+	/**
+	 * Number of divisors tau(n), the product of (m + 1) over all multiplicities m.
+	 * 
+	 * @return number of divisors, or -1 if it does not fit in a long
+	 */
+	public long divisorCount() {
+
+		long ret = 1;
+		for (Node n = head.next; n != tail && ret != OVERFLOW; n = n.next) {
+			ret = multiplyValues(ret, n.pFactor.multiplicity + 1L);
+		}
+		return ret;
+	}
+
+	/**
+	 * @return number of divisors as a BigInteger
+	 */
+	public BigInteger bigDivisorCount() {
+
+		long v = divisorCount();
+		if (v != OVERFLOW) {
+			return BigInteger.valueOf(v);
+		}
+		BigInteger[] terms = new BigInteger[size];
+		int i = 0;
+		for (Node n = head.next; n != tail; n = n.next) {
+			terms[i++] = BigInteger.valueOf(n.pFactor.multiplicity + 1L);
+		}
+		return product(terms, 0, size);
+	}
+
+	/**
+	 * Sum of divisors sigma(n), the product of 1 + p + ... + p^m over all prime
+	 * factors p^m.
+	 * 
+	 * @return sum of the divisors, or -1 if it does not fit in a long
+	 */
+	public long divisorSum() {
+
+		long ret = 1;
+		for (Node n = head.next; n != tail && ret != OVERFLOW; n = n.next) {
+			// Horner's rule; overflows within 63 rounds, so large m are cheap too
+			long sum = 1;
+			for (int i = 0; i < n.pFactor.multiplicity && sum != OVERFLOW; i++) {
+				sum = multiplyValues(sum, n.pFactor.prime);
+				sum = sum == OVERFLOW || sum == Long.MAX_VALUE ? OVERFLOW : sum + 1;
+			}
+			ret = multiplyValues(ret, sum);
+		}
+		return ret;
+	}
+
+	/**
+	 * @return sum of the divisors as a BigInteger
+	 */
+	public BigInteger bigDivisorSum() {
+
+		long v = divisorSum();
+		if (v != OVERFLOW) {
+			return BigInteger.valueOf(v);
+		}
+		BigInteger[] terms = new BigInteger[size];
+		int i = 0;
+		for (Node n = head.next; n != tail; n = n.next) {
+			BigInteger p = BigInteger.valueOf(n.pFactor.prime);
+			terms[i++] = p.pow(n.pFactor.multiplicity + 1).subtract(BigInteger.ONE)
+					.divide(p.subtract(BigInteger.ONE));
+		}
+		return product(terms, 0, size);
+	}
+
+	/**
+	 * Euler's totient phi(n), the product of p^(m - 1) * (p - 1) over all prime
+	 * factors p^m.
+	 * 
+	 * @return number of integers in [1, n] coprime to n, or -1 if it does not fit
+	 *         in a long
+	 */
+	public long totient() {
+
+		long ret = 1;
+		for (Node n = head.next; n != tail && ret != OVERFLOW; n = n.next) {
+			ret = multiplyValues(ret, power(n.pFactor.prime, n.pFactor.multiplicity - 1));
+			ret = multiplyValues(ret, n.pFactor.prime - 1L);
+		}
+		return ret;
+	}
+
+	/**
+	 * @return Euler's totient as a BigInteger
+	 */
+	public BigInteger bigTotient() {
+
+		long v = totient();
+		if (v != OVERFLOW) {
+			return BigInteger.valueOf(v);
+		}
+		BigInteger[] terms = new BigInteger[size];
+		int i = 0;
+		for (Node n = head.next; n != tail; n = n.next) {
+			BigInteger p = BigInteger.valueOf(n.pFactor.prime);
+			terms[i++] = p.pow(n.pFactor.multiplicity - 1).multiply(p.subtract(BigInteger.ONE));
+		}
+		return product(terms, 0, size);
+	}
+
+	/**
+	 * Moebius function mu(n).
+	 * 
+	 * @return 0 if a multiplicity is larger than 1, otherwise 1 for an even and
+	 *         -1 for an odd number of prime factors
+	 */
+	public int mobius() {
 
-		PrimeFactorizationIterator I = iterator();
-		PrimeFactorizationIterator J = pf.iterator();
-		PrimeFactorization ret = new PrimeFactorization();
-		for (int i = 0; i < size; i++) {
-			PrimeFactor tmp1 = I.next();
-			for (int j = 0; j < pf.size; j++) {
-				PrimeFactor tmp2 = J.next();
-				if (tmp1.prime == tmp2.prime) {
-					ret.add(tmp1.prime, Math.min(tmp1.multiplicity, tmp2.multiplicity));
-				}
+		for (Node n = head.next; n != tail; n = n.next) {
+			if (n.pFactor.multiplicity > 1) {
+				return 0;
 			}
 		}
-		return ret;
+		return (size & 1) == 0 ? 1 : -1;
 	}
 
 	/**
+	 * Enumerates the divisors lazily in mixed-radix order: the exponent of the
+	 * smallest prime varies fastest, e.g. 1, 2, 4, 3, 6, 12 for 12. Only the
+	 * current exponents are kept, so numbers with millions of divisors stream
+	 * in constant space. The iterator works on a copy of the factors taken
+	 * here; later changes to this object do not affect it.
 	 * 
-	 * @param pf1
-	 * @param pf2
-	 * @return prime factorization of the gcd of two numbers represented by pf1 and
-	 *         pf2
+	 * @return iterator over all divisors, 1 and value() included
+	 * @throws ArithmeticException if valueOverflow()
 	 */
-	public static PrimeFactorization gcd(PrimeFactorization pf1, PrimeFactorization pf2) {
+	public PrimitiveIterator.OfLong divisors() throws ArithmeticException {
 
-		PrimeFactorization ret = pf1.gcd(pf2);
-		return ret;
+		if (valueOverflow()) {
+			throw new ArithmeticException("value overflows a long");
+		}
+		return new DivisorIterator();
 	}
 
 	// ------------
@@ -396,13 +1044,11 @@ public class PrimeFactorization implements Iterable<PrimeFactor> {
 	 */
 	public boolean containsPrimeFactor(int p) throws IllegalArgumentException {
 
-		PrimeFactorizationIterator I = new PrimeFactorizationIterator();
 		if (!isPrime(p)) {
 			throw new IllegalArgumentException();
 		}
-		while (I.hasNext()) {
-			PrimeFactor tmp = I.next();
-			if (tmp.prime == p) {
+		for (Node n = head.next; n != tail && n.pFactor.prime <= p; n = n.next) {
+			if (n.pFactor.prime == p) {
 				return true;
 			}
 		}
@@ -422,38 +1068,22 @@ public class PrimeFactorization implements Iterable<PrimeFactor> {
 	 */
 	public boolean add(int p, int m) {
 
-		PrimeFactorizationIterator I = iterator();
-		PrimeFactor pf = new PrimeFactor(p, m);
-		if (m >= 1) {
-			while (I.hasNext()) {
-				PrimeFactor tmp = I.next();
-				if (tmp.prime == p) {
-
-					I.previous().multiplicity = tmp.multiplicity + m;
-					return true;
-				}
-				if (tmp.prime > p) {
-					I.previous();
-					I.add(pf);
-					return true;
-				}
-
-			}
-			if (!I.hasNext()) {
-				I.add(pf);
-				return true;
-			}
-			if (size == 0) {
-				I.add(pf);
-				return true;
-			}
-			return true;
-		}
 		if (m < 1) {
 			return false;
 		}
-		// to please the compiler
-		return false;
+		Node n = head.next;
+		while (n != tail && n.pFactor.prime < p) {
+			n = n.next;
+		}
+		if (n != tail && n.pFactor.prime == p) {
+			n.pFactor.multiplicity += m;
+			modCount++;
+		} else {
+			link(n.previous, new Node(new PrimeFactor(p, m)));
+			size++;
+		}
+		multiplyValue(p, m);
+		return true;
 	}
 
 	/**
@@ -471,22 +1101,21 @@ public class PrimeFactorization implements Iterable<PrimeFactor> {
 	 */
 	public boolean remove(int p, int m) throws IllegalArgumentException {
 
-		PrimeFactorizationIterator I = new PrimeFactorizationIterator();
 		if (m < 1) {
 			throw new IllegalArgumentException();
 		}
-		while (I.hasNext()) {
-
-			PrimeFactor tmp = I.next();
-			if (tmp.prime == p) {
-				if (tmp.multiplicity > m) {
-					I.previous().multiplicity = tmp.multiplicity - m;
-					return true;
-				} else if (tmp.multiplicity <= m) {
-					I.remove();
+		for (Node n = head.next; n != tail && n.pFactor.prime <= p; n = n.next) {
+			if (n.pFactor.prime == p) {
+				int removed = Math.min(m, n.pFactor.multiplicity);
+				if (n.pFactor.multiplicity > m) {
+					n.pFactor.multiplicity -= m;
+					modCount++;
+				} else {
+					unlink(n);
 					size--;
-					return false;
 				}
+				divideValue(p, removed);
+				return true;
 			}
 		}
 		return false;
@@ -496,6 +1125,7 @@ public class PrimeFactorization implements Iterable<PrimeFactor> {
 	 * 
 	 * @return size of the list
 	 */
+	@Override
 	public int size() {
 
 		return size;
@@ -509,16 +1139,7 @@ public class PrimeFactorization implements Iterable<PrimeFactor> {
 	@Override
 	public String toString() {
 
-		if (size == 0) {
-			return "1";
-		}
-		PrimeFactorizationIterator p = new PrimeFactorizationIterator();
-		String ret = p.next().toString();
-
-		for (int i = 0; i < size - 1; i++) {
-			ret += " * " + p.next().toString();
-		}
-		return ret;
+		return PrimeFactorizationFormat.format(this, new StringBuilder(8 * size + 1)).toString();
 	}
 
 	/**
@@ -527,22 +1148,50 @@ public class PrimeFactorization implements Iterable<PrimeFactor> {
 	 */
 	public boolean valueOverflow() {
 
-		return value == OVERFLOW;
+		return value() == OVERFLOW;
 	}
 
 	/**
+	 * The value is cached: add() and remove() update it in place, and it is only
+	 * recomputed from the list after an operation that could not (e.g. removing
+	 * from an overflowed value).
+	 * 
 	 * @return value represented by this PrimeFactorization, or -1 if
 	 *         valueOverflow()
 	 */
 	public long value() {
 
-		updateValue();
+		if (dirty) {
+			updateValue();
+		}
 		return value;
 	}
 
+	/**
+	 * Computes the represented integer exactly, also when valueOverflow(). The
+	 * prime powers are multiplied together in a balanced tree so that the
+	 * operands of each multiplication have similar sizes.
+	 * 
+	 * @return value represented by this PrimeFactorization
+	 */
+	public BigInteger bigValue() {
+
+		long v = value();
+		if (v != OVERFLOW) {
+			return BigInteger.valueOf(v);
+		}
+		BigInteger[] powers = new BigInteger[size];
+		int i = 0;
+		for (Node n = head.next; n != tail; n = n.next) {
+			powers[i++] = BigInteger.valueOf(n.pFactor.prime).pow(n.pFactor.multiplicity);
+		}
+		return product(powers, 0, size);
+	}
+
 	/**
 	 * constructs an array containing all the PrimeFactors of this
-	 * PrimeFactorization
+	 * PrimeFactorization. The elements are copies; changing them does not change
+	 * this object.
 	 * 
 	 * @return an array of Prime Factors
 	 */
@@ -550,8 +1199,8 @@ public class PrimeFactorization implements Iterable<PrimeFactor> {
 
 		PrimeFactor[] arr = new PrimeFactor[size];
 		int i = 0;
-		for (PrimeFactor pf : this)
-			arr[i++] = pf;
+		for (Node n = head.next; n != tail; n = n.next)
+			arr[i++] = n.pFactor.clone();
 		return arr;
 	}
 
@@ -564,6 +1213,48 @@ public class PrimeFactorization implements Iterable<PrimeFactor> {
 		return new PrimeFactorizationIterator();
 	}
 
+	/**
+	 * Returns a frozen copy of this factorization that can be iterated, or handed
+	 * to other threads, while this list keeps changing. The copy is cached and
+	 * reused until the next change, so repeated calls between writes cost
+	 * nothing.
+	 * 
+	 * Like every other method here, snapshot() itself must not race with a
+	 * writer; take it on the writing thread or under the same lock.
+	 * 
+	 * @return immutable copy of the current factorization
+	 */
+	public ImmutablePrimeFactorization snapshot() {
+
+		if (snapshot == null || snapshotModCount != modCount) {
+			snapshot = ImmutablePrimeFactorization.of(this);
+			snapshotModCount = modCount;
+		}
+		return snapshot;
+	}
+
+	/**
+	 * @return a cursor positioned before the smallest prime factor
+	 */
+	public FactorCursor cursor() {
+
+		return new FactorCursor();
+	}
+
+	/**
+	 * Calls action with every prime and multiplicity in increasing order of the
+	 * primes, without creating an iterator. action must not modify this list.
+	 * 
+	 * @param action
+	 */
+	@Override
+	public void forEachFactor(IntIntConsumer action) {
+
+		for (Node n = head.next; n != tail; n = n.next) {
+			action.accept(n.pFactor.prime, n.pFactor.multiplicity);
+		}
+	}
+
 	/**
 	 * Doubly-linked node type for this class.
 	 */
@@ -596,7 +1287,9 @@ public class PrimeFactorization implements Iterable<PrimeFactor> {
 		}
 
 		/**
-		 * Constructs a node over a provided PrimeFactor object.
+		 * Constructs a node over a copy of a provided PrimeFactor object. The
+		 * caller keeps its own object, so changing it later cannot desynchronize
+		 * the list from the cached value.
 		 * 
 		 * @param pf
 		 * @throws IllegalArgumentException
@@ -606,7 +1299,7 @@ public class PrimeFactorization implements Iterable<PrimeFactor> {
 			if (!isPrime(pf.prime)) {
 				throw new IllegalArgumentException();
 			}
-			pFactor = pf;
+			pFactor = pf.clone();
 		}
 
 		/**
@@ -638,6 +1331,7 @@ public class PrimeFactorization implements Iterable<PrimeFactor> {
 		private Node pending = null; // node pending for removal
 		private int index = 0;
 		private int direction;
+		private int expectedModCount = modCount;
 
 		/**
 		 * Default constructor positions the cursor before the smallest prime factor.
@@ -667,15 +1361,16 @@ public class PrimeFactorization implements Iterable<PrimeFactor> {
 		/**
 		 * moves the cursor forward an index
 		 * 
-		 * @return the primeFactor the cursor passed over
+		 * @return a copy of the primeFactor the cursor passed over
 		 */
 		@Override
 		public PrimeFactor next() {
 
+			checkForComodification();
 			if (!hasNext()) {
 				throw new NoSuchElementException();
 			}
-			PrimeFactor ret = cursor.pFactor;
+			PrimeFactor ret = cursor.pFactor.clone();
 			pending = cursor;
 			cursor = cursor.next;
 			index++;
@@ -686,11 +1381,12 @@ public class PrimeFactorization implements Iterable<PrimeFactor> {
 		/**
 		 * moved the cursor back an index
 		 * 
-		 * @return the primeFactor the cursor passed over
+		 * @return a copy of the primeFactor the cursor passed over
 		 */
 		@Override
 		public PrimeFactor previous() {
 
+			checkForComodification();
 			if (!hasPrevious()) {
 				throw new NoSuchElementException();
 			}
@@ -698,7 +1394,7 @@ public class PrimeFactorization implements Iterable<PrimeFactor> {
 			cursor = cursor.previous;
 			index--;
 			direction = BACKWARD;
-			return cursor.pFactor;
+			return cursor.pFactor.clone();
 		}
 
 		/**
@@ -709,17 +1405,24 @@ public class PrimeFactorization implements Iterable<PrimeFactor> {
 		@Override
 		public void remove() throws IllegalStateException {
 
+			checkForComodification();
 			if (pending == null) {
 				throw new IllegalStateException();
 			} else {
 				if (direction == BACKWARD) {
 					Node n = cursor.next;
 					unlink(cursor);
+					divideValue(cursor.pFactor.prime, cursor.pFactor.multiplicity);
 					cursor = n;
 				} else {
-					unlink(cursor.previous);
+					Node n = cursor.previous;
+					unlink(n);
+					divideValue(n.pFactor.prime, n.pFactor.multiplicity);
 					index--;
 				}
+				pending = null;
+				size--;
+				expectedModCount = modCount;
 			}
 		}
 
@@ -740,6 +1443,7 @@ public class PrimeFactorization implements Iterable<PrimeFactor> {
 		@Override
 		public void add(PrimeFactor pf) throws IllegalArgumentException {
 
+			checkForComodification();
 			if (cursor.previous != head && pf.prime < cursor.previous.pFactor.prime) {
 				throw new IllegalArgumentException();
 			}
@@ -752,6 +1456,7 @@ public class PrimeFactorization implements Iterable<PrimeFactor> {
 				temp.previous = head;
 				temp.next = tail;
 				tail.previous = temp;
+				modCount++;
 				index++;
 				size++;
 				direction = NONE;
@@ -763,6 +1468,8 @@ public class PrimeFactorization implements Iterable<PrimeFactor> {
 				size++;
 				direction = NONE;
 			}
+			multiplyValue(pf.prime, pf.multiplicity);
+			expectedModCount = modCount;
 		}
 
 		/**
@@ -787,6 +1494,177 @@ public class PrimeFactorization implements Iterable<PrimeFactor> {
 		public void set(PrimeFactor pf) {
 			throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support set method");
 		}
+
+		/**
+		 * @throws ConcurrentModificationException if the list was changed other than
+		 *                                         through this iterator
+		 */
+		private void checkForComodification() {
+
+			if (modCount != expectedModCount) {
+				throw new ConcurrentModificationException();
+			}
+		}
+	}
+
+	/**
+	 * Read-only forward cursor over the factors that hands out primes and
+	 * multiplicities as ints:
+	 * 
+	 * <pre>
+	 * for (FactorCursor c = pf.cursor(); c.next();) {
+	 * 	use(c.prime(), c.multiplicity());
+	 * }
+	 * </pre>
+	 * 
+	 * The list must not be modified while the cursor is in use; next() throws
+	 * ConcurrentModificationException if it was.
+	 */
+	public final class FactorCursor {
+		private Node current = head;
+		private int expectedModCount = modCount;
+
+		private FactorCursor() {
+
+		}
+
+		/**
+		 * Moves to the next factor.
+		 * 
+		 * @return false if there is none
+		 * @throws ConcurrentModificationException if the list has changed since the
+		 *                                         cursor was created or reset
+		 */
+		public boolean next() {
+
+			if (modCount != expectedModCount) {
+				throw new ConcurrentModificationException();
+			}
+			if (current == tail) {
+				return false;
+			}
+			current = current.next;
+			return current != tail;
+		}
+
+		/**
+		 * @return prime of the current factor
+		 * @throws NoSuchElementException if next() has not returned true
+		 */
+		public int prime() {
+
+			if (current.pFactor == null) {
+				throw new NoSuchElementException();
+			}
+			return current.pFactor.prime;
+		}
+
+		/**
+		 * @return multiplicity of the current factor
+		 * @throws NoSuchElementException if next() has not returned true
+		 */
+		public int multiplicity() {
+
+			if (current.pFactor == null) {
+				throw new NoSuchElementException();
+			}
+			return current.pFactor.multiplicity;
+		}
+
+		/**
+		 * Moves the cursor back before the smallest prime factor.
+		 */
+		public void reset() {
+
+			current = head;
+			expectedModCount = modCount;
+		}
+	}
+
+	/**
+	 * Mixed-radix counter over the exponent vectors of the divisors. The current
+	 * divisor is updated by one multiplication or a few divisions per step.
+	 */
+	private class DivisorIterator implements PrimitiveIterator.OfLong {
+		private final long[] primes = new long[size];
+		private final int[] multiplicities = new int[size];
+		private final int[] exponents = new int[size];
+		private final long[] powers = new long[size]; // primes[i]^exponents[i]
+		private long divisor = 1;
+		private boolean done;
+
+		private DivisorIterator() {
+
+			int i = 0;
+			for (Node n = head.next; n != tail; n = n.next) {
+				primes[i] = n.pFactor.prime;
+				multiplicities[i] = n.pFactor.multiplicity;
+				powers[i] = 1;
+				i++;
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+
+			return !done;
+		}
+
+		@Override
+		public long nextLong() {
+
+			if (done) {
+				throw new NoSuchElementException();
+			}
+			long ret = divisor;
+			int i = 0;
+			while (i < exponents.length && exponents[i] == multiplicities[i]) {
+				divisor /= powers[i];
+				exponents[i] = 0;
+				powers[i] = 1;
+				i++;
+			}
+			if (i == exponents.length) {
+				done = true;
+			} else {
+				exponents[i]++;
+				powers[i] *= primes[i];
+				divisor *= primes[i];
+			}
+			return ret;
+		}
+	}
+
+	/**
+	 * Factors inputs[from..to) into results[from..to).
+	 */
+	private static class FactorTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final long[] inputs;
+		private final PrimeFactorization[] results;
+		private final int from;
+		private final int to;
+
+		FactorTask(long[] inputs, PrimeFactorization[] results, int from, int to) {
+
+			this.inputs = inputs;
+			this.results = results;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+
+			if (to - from <= BATCH_THRESHOLD) {
+				for (int i = from; i < to; i++) {
+					results[i] = new PrimeFactorization(inputs[i]);
+				}
+			} else {
+				int mid = (from + to) >>> 1;
+				invokeAll(new FactorTask(inputs, results, from, mid), new FactorTask(inputs, results, mid, to));
+			}
+		}
 	}
 
 	// --------------
@@ -804,6 +1682,7 @@ public class PrimeFactorization implements Iterable<PrimeFactor> {
 		toAdd.next = current.next;
 		current.next.previous = toAdd;
 		current.next = toAdd;
+		modCount++;
 	}
 
 	/**
@@ -813,6 +1692,146 @@ public class PrimeFactorization implements Iterable<PrimeFactor> {
 
 		toRemove.previous.next = toRemove.next;
 		toRemove.next.previous = toRemove.previous;
+		modCount++;
+	}
+
+	/**
+	 * Package-private so that other classes that factor longs follow the same
+	 * table/engine configuration.
+	 * 
+	 * @return the installed table if it covers n, the engine otherwise
+	 */
+	static FactoringEngine engineFor(long n) {
+
+		FactorizationTable t = table;
+		return t != null && t.covers(n) ? t : engine;
+	}
+
+	/**
+	 * Package-private so that other classes that factor longs reuse the same
+	 * per-thread buffers instead of allocating their own.
+	 * 
+	 * @return this thread's {primes, multiplicities} buffers for the engine
+	 */
+	static int[][] scratch() {
+
+		return SCRATCH.get();
+	}
+
+	/**
+	 * Same as add(p, m) for m >= 1, but links the node directly instead of going
+	 * through the iterator, which would test p for primality again. Used for
+	 * factors produced by the factoring engine.
+	 * 
+	 * Precondition: p is a prime, m >= 1.
+	 */
+	private void addTrusted(int p, int m) {
+
+		Node n = tail.previous;
+		while (n != head && n.pFactor.prime > p) {
+			n = n.previous;
+		}
+		if (n != head && n.pFactor.prime == p) {
+			n.pFactor.multiplicity += m;
+			modCount++;
+		} else {
+			link(n, new Node(p, m));
+			size++;
+		}
+	}
+
+	/**
+	 * Appends a node for p and m after the last node and updates size and
+	 * value. Package-private so that other builders of already sorted
+	 * factorizations can skip add().
+	 * 
+	 * Precondition: p is a prime larger than every prime in the list, m >= 1.
+	 */
+	void append(int p, int m) {
+
+		link(tail.previous, new Node(p, m));
+		size++;
+		multiplyValue(p, m);
+	}
+
+	/**
+	 * Factors every n in [lo, hi) by dividing the primes of PrimeTable out of
+	 * their multiples in increasing order, so that every factorization can be
+	 * built with append(). If the table cannot grow up to sqrt(hi), cofactors
+	 * that may still be composite go to the engine.
+	 * 
+	 * Precondition: 1 <= lo < hi, hi - lo <= SEGMENT_LENGTH
+	 */
+	private static PrimeFactorization[] factorSegment(long lo, long hi) {
+
+		int length = (int) (hi - lo);
+		long[] rest = new long[length];
+		PrimeFactorization[] ret = new PrimeFactorization[length];
+		for (int i = 0; i < length; i++) {
+			rest[i] = lo + i;
+			ret[i] = new PrimeFactorization();
+		}
+		long largest = 1; // largest prime divided out so far
+		boolean complete = false; // every prime up to sqrt(hi - 1) divided out
+		for (int k = 0; !complete; k++) {
+			long p;
+			try {
+				p = PrimeTable.prime(k);
+			} catch (IndexOutOfBoundsException e) {
+				break;
+			}
+			if (p * p >= hi) {
+				complete = true;
+				break;
+			}
+			largest = p;
+			// offsets rather than absolute values, which could overflow near 2^63
+			for (long i = (p - lo % p) % p; i < length; i += p) {
+				long r = rest[(int) i];
+				int m = 0;
+				do {
+					r /= p;
+					m++;
+				} while (r % p == 0);
+				rest[(int) i] = r;
+				ret[(int) i].append((int) p, m);
+			}
+		}
+		int[][] scratch = scratch();
+		for (int i = 0; i < length; i++) {
+			long r = rest[i];
+			if (r == 1) {
+				continue;
+			}
+			if (complete || r / largest <= largest) {
+				// no prime factor up to largest is left, so r is a prime
+				if (r > Integer.MAX_VALUE) {
+					throw new IllegalArgumentException("prime factor " + r + " exceeds Integer.MAX_VALUE");
+				}
+				ret[i].append((int) r, 1);
+			} else {
+				int count = engineFor(r).factor(r, scratch[0], scratch[1]);
+				for (int j = 0; j < count; j++) {
+					ret[i].append(scratch[0][j], scratch[1][j]);
+				}
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * gcd or lcm of pfs[from..to), combining halves so that every factor is
+	 * merged O(log(to - from)) times.
+	 */
+	private static PrimeFactorization reduce(PrimeFactorization[] pfs, int from, int to, boolean lcm) {
+
+		if (to - from == 1) {
+			return new PrimeFactorization(pfs[from]);
+		}
+		int mid = (from + to) >>> 1;
+		PrimeFactorization left = reduce(pfs, from, mid, lcm);
+		PrimeFactorization right = reduce(pfs, mid, to, lcm);
+		return lcm ? left.lcm(right) : left.gcd(right);
 	}
 
 	/**
@@ -822,40 +1841,176 @@ public class PrimeFactorization implements Iterable<PrimeFactor> {
 	 */
 	public void clearList() {
 
-		PrimeFactorizationIterator I = this.iterator();
-		for (int i = 0; i < size; i++) {
-			unlink(I.cursor);
-			I.next();
-		}
+		head.next = tail;
+		tail.previous = head;
 		size = 0;
+		modCount++;
+		value = 1;
+		dirty = false;
 
 	}
 
 	/**
 	 * Multiply the prime factors (with multiplicities) out to obtain the
-	 * represented integer. Use Math.multiply(). If an exception is throw, assign
-	 * OVERFLOW to the instance variable value. Otherwise, assign the multiplication
-	 * result to the variable.
+	 * represented integer, and assign it to the instance variable value, or
+	 * OVERFLOW if it does not fit in a long.
 	 * 
+	 * Prime powers are computed by squaring, and when the sum of
+	 * multiplicity * log2(prime) already exceeds 63 no multiplication is done
+	 * at all. Otherwise each product goes through multiplyValues(), which
+	 * detects overflow from the sign and the high half of the 128-bit product
+	 * instead of throwing.
 	 */
 	private void updateValue() {
 
-		try {
-			PrimeFactorizationIterator p = iterator();
-			value = 1;
-			for (int i = 0; i < size; i++) {
-				PrimeFactor tmp = p.next();
-				for (int j = 0; j < tmp.multiplicity; j++) {
+		double bits = 0;
+		for (Node n = head.next; n != tail; n = n.next) {
+			bits += n.pFactor.multiplicity * Math.log(n.pFactor.prime);
+		}
+		dirty = false;
+		if (bits / LN_2 > 63.001) {
+			value = OVERFLOW;
+			return;
+		}
+		value = 1;
+		for (Node n = head.next; n != tail && value != OVERFLOW; n = n.next) {
+			value = multiplyValues(value, power(n.pFactor.prime, n.pFactor.multiplicity));
+		}
+	}
+
+	/**
+	 * @return product of a[from..to), for from < to
+	 */
+	private static BigInteger product(BigInteger[] a, int from, int to) {
 
-					value = Math.multiplyExact(value, (long) tmp.prime);
-				}
+		if (to - from == 1) {
+			return a[from];
+		}
+		int mid = (from + to) >>> 1;
+		return product(a, from, mid).multiply(product(a, mid, to));
+	}
+
+	/**
+	 * Multiplies the cached value by p^m, unless it has to be recomputed anyway.
+	 */
+	private void multiplyValue(int p, int m) {
+
+		if (!dirty && value != OVERFLOW) {
+			value = multiplyValues(value, power(p, m));
+		}
+	}
+
+	/**
+	 * Divides the cached value by p^m, where p^m is known to divide the
+	 * represented number. An overflowed value may fit again afterwards, so it is
+	 * marked for recomputation.
+	 */
+	private void divideValue(int p, int m) {
+
+		if (value == OVERFLOW) {
+			dirty = true;
+		} else if (!dirty) {
+			value /= power(p, m);
+		}
+	}
+
+	/**
+	 * Stein's algorithm: the common power of 2 is counted once, after which
+	 * both numbers are kept odd and the smaller is subtracted from the larger.
+	 * Package-private for PollardRhoEngine.
+	 * 
+	 * Precondition: a >= 0, b >= 0
+	 * 
+	 * @return gcd of a and b, where gcd(x, 0) = x
+	 */
+	static long binaryGcd(long a, long b) {
+
+		if (a == 0 || b == 0) {
+			return a | b;
+		}
+		int shift = Long.numberOfTrailingZeros(a | b);
+		a >>= Long.numberOfTrailingZeros(a);
+		while (b != 0) {
+			b >>= Long.numberOfTrailingZeros(b);
+			if (a > b) {
+				long t = a;
+				a = b;
+				b = t;
 			}
+			b -= a;
+		}
+		return a << shift;
+	}
+
+	/**
+	 * @return p^e mod 2^s, where mask = 2^s - 1; long multiplication wraps modulo
+	 *         2^64, so no reduction is needed until the end
+	 */
+	private static long powerMod2(long p, int e, long mask) {
 
+		long ret = 1;
+		while (e > 0) {
+			if ((e & 1) != 0) {
+				ret *= p;
+			}
+			p *= p;
+			e >>>= 1;
 		}
+		return ret & mask;
+	}
 
-		catch (ArithmeticException e) {
-			value = OVERFLOW;
+	/**
+	 * @return gcd of all the multiplicities, 0 for an empty list
+	 */
+	private int multiplicityGcd() {
+
+		int ret = 0;
+		for (Node n = head.next; n != tail && ret != 1; n = n.next) {
+			ret = ret == 0 ? n.pFactor.multiplicity : (int) Euclidean(n.pFactor.multiplicity, ret);
+		}
+		return ret;
+	}
+
+	/**
+	 * Overflow is detected from the high half of the 128-bit product rather than
+	 * by catching Math.multiplyExact()'s exception, which costs microseconds
+	 * each time a value overflows.
+	 * 
+	 * Precondition: a >= 0 or a == OVERFLOW, b >= 0 or b == OVERFLOW
+	 * 
+	 * @return a * b, or OVERFLOW if either is OVERFLOW or the product does not
+	 *         fit in a long
+	 */
+	static long multiplyValues(long a, long b) {
+
+		if (a == OVERFLOW || b == OVERFLOW) {
+			return OVERFLOW;
+		}
+		long product = a * b;
+		if (product < 0 || Montgomery.multiplyHigh(a, b) != 0) {
+			return OVERFLOW;
 		}
+		return product;
+	}
+
+	/**
+	 * @return p^m by repeated squaring, or OVERFLOW if it does not fit in a long
+	 */
+	static long power(long p, int m) {
 
+		long ret = 1;
+		while (true) {
+			if ((m & 1) != 0) {
+				ret = multiplyValues(ret, p);
+			}
+			m >>>= 1;
+			if (m == 0 || ret == OVERFLOW) {
+				return ret;
+			}
+			p = multiplyValues(p, p);
+			if (p == OVERFLOW) {
+				return OVERFLOW;
+			}
+		}
 	}
 }
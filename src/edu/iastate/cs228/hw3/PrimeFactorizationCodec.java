@@ -0,0 +1,240 @@
+package edu.iastate.cs228.hw3;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Compact binary form of a PrimeFactorization. An encoding is the number of
+ * distinct primes followed by, for each prime in increasing order, the gap to
+ * the previous prime (the prime itself for the first one) and the
+ * multiplicity, all as unsigned LEB128 varints. Encodings are
+ * self-delimiting, so any number of them can be written back to back to one
+ * stream or buffer and read back one at a time.
+ * 
+ * 5814 = 2 * 3^2 * 17 * 19 encodes to the 9 bytes 04 02 01 01 02 0e 01 02 01.
+ * 
+ * @author Andrew Pester
+ *
+ */
+public final class PrimeFactorizationCodec {
+
+	private PrimeFactorizationCodec() {
+
+	}
+
+	// --------
+	// Encoding
+	// --------
+
+	/**
+	 * @param pf
+	 * @return number of bytes encode() writes for pf
+	 */
+	public static int encodedSize(PrimeFactorization pf) {
+
+		int ret = varintSize(pf.size());
+		int previous = 0;
+		for (PrimeFactorization.FactorCursor c = pf.cursor(); c.next();) {
+			ret += varintSize(c.prime() - previous) + varintSize(c.multiplicity());
+			previous = c.prime();
+		}
+		return ret;
+	}
+
+	/**
+	 * Writes the encoding of pf at the position of out.
+	 * 
+	 * @param pf
+	 * @param out
+	 * @throws java.nio.BufferOverflowException if out has fewer than
+	 *                                          encodedSize(pf) bytes remaining
+	 */
+	public static void encode(PrimeFactorization pf, ByteBuffer out) {
+
+		putVarint(out, pf.size());
+		int previous = 0;
+		for (PrimeFactorization.FactorCursor c = pf.cursor(); c.next();) {
+			putVarint(out, c.prime() - previous);
+			putVarint(out, c.multiplicity());
+			previous = c.prime();
+		}
+	}
+
+	/**
+	 * @param pf
+	 * @return a new array holding the encoding of pf
+	 */
+	public static byte[] encode(PrimeFactorization pf) {
+
+		byte[] ret = new byte[encodedSize(pf)];
+		encode(pf, ByteBuffer.wrap(ret));
+		return ret;
+	}
+
+	/**
+	 * Writes the encoding of pf to out. Callers writing many factorizations
+	 * should pass a buffered stream.
+	 * 
+	 * @param pf
+	 * @param out
+	 * @throws IOException if out throws
+	 */
+	public static void encode(PrimeFactorization pf, OutputStream out) throws IOException {
+
+		writeVarint(out, pf.size());
+		int previous = 0;
+		for (PrimeFactorization.FactorCursor c = pf.cursor(); c.next();) {
+			writeVarint(out, c.prime() - previous);
+			writeVarint(out, c.multiplicity());
+			previous = c.prime();
+		}
+	}
+
+	// --------
+	// Decoding
+	// --------
+
+	/**
+	 * Reads one encoding from the position of in. The factors are appended
+	 * straight to the new list; no intermediate PrimeFactor is created.
+	 * 
+	 * @param in
+	 * @return the decoded factorization
+	 * @throws BufferUnderflowException if in ends inside the encoding
+	 * @throws IllegalArgumentException if the encoding is malformed
+	 */
+	public static PrimeFactorization decode(ByteBuffer in) throws IllegalArgumentException {
+
+		int size = getVarint(in);
+		PrimeFactorization ret = new PrimeFactorization();
+		int previous = 0;
+		for (int i = 0; i < size; i++) {
+			previous = appendFactor(ret, previous, getVarint(in), getVarint(in));
+		}
+		return ret;
+	}
+
+	/**
+	 * @param bytes
+	 * @return the factorization encoded at the start of bytes
+	 * @throws IllegalArgumentException if the encoding is malformed or truncated
+	 */
+	public static PrimeFactorization decode(byte[] bytes) throws IllegalArgumentException {
+
+		try {
+			return decode(ByteBuffer.wrap(bytes));
+		} catch (BufferUnderflowException e) {
+			throw new IllegalArgumentException("truncated encoding");
+		}
+	}
+
+	/**
+	 * Reads one encoding from in, consuming exactly its bytes.
+	 * 
+	 * @param in
+	 * @return the decoded factorization
+	 * @throws EOFException             if in ends inside the encoding
+	 * @throws IOException              if in throws
+	 * @throws IllegalArgumentException if the encoding is malformed
+	 */
+	public static PrimeFactorization decode(InputStream in) throws IOException, IllegalArgumentException {
+
+		int size = readVarint(in);
+		PrimeFactorization ret = new PrimeFactorization();
+		int previous = 0;
+		for (int i = 0; i < size; i++) {
+			previous = appendFactor(ret, previous, readVarint(in), readVarint(in));
+		}
+		return ret;
+	}
+
+	// --------------
+	// Helper methods
+	// --------------
+
+	/**
+	 * Checks one decoded factor and appends it.
+	 * 
+	 * @return the prime appended
+	 */
+	private static int appendFactor(PrimeFactorization pf, int previous, int gap, int multiplicity) {
+
+		long p = (long) previous + gap;
+		if (gap < 1 || p > Integer.MAX_VALUE || multiplicity < 1 || !PrimeFactorization.isPrime(p)) {
+			throw new IllegalArgumentException("malformed factor after " + previous);
+		}
+		pf.append((int) p, multiplicity);
+		return (int) p;
+	}
+
+	private static int varintSize(int v) {
+
+		return (38 - Integer.numberOfLeadingZeros(v | 1)) / 7;
+	}
+
+	private static void putVarint(ByteBuffer out, int v) {
+
+		while ((v & ~0x7F) != 0) {
+			out.put((byte) (v & 0x7F | 0x80));
+			v >>>= 7;
+		}
+		out.put((byte) v);
+	}
+
+	private static void writeVarint(OutputStream out, int v) throws IOException {
+
+		while ((v & ~0x7F) != 0) {
+			out.write(v & 0x7F | 0x80);
+			v >>>= 7;
+		}
+		out.write(v);
+	}
+
+	/**
+	 * @throws IllegalArgumentException if the varint does not fit in a
+	 *                                  non-negative int
+	 */
+	private static int getVarint(ByteBuffer in) {
+
+		int ret = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			byte b = in.get();
+			ret |= (b & 0x7F) << shift;
+			if (b >= 0) {
+				return checkVarint(ret, shift, b);
+			}
+		}
+		throw new IllegalArgumentException("varint too long");
+	}
+
+	private static int readVarint(InputStream in) throws IOException {
+
+		int ret = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = in.read();
+			if (b < 0) {
+				throw new EOFException();
+			}
+			ret |= (b & 0x7F) << shift;
+			if (b < 0x80) {
+				return checkVarint(ret, shift, b);
+			}
+		}
+		throw new IllegalArgumentException("varint too long");
+	}
+
+	/**
+	 * Rejects values that overflowed into the sign bit or were cut off.
+	 */
+	private static int checkVarint(int v, int shift, int last) {
+
+		if (v < 0 || shift == 28 && last > 0x07) {
+			throw new IllegalArgumentException("varint out of range");
+		}
+		return v;
+	}
+}
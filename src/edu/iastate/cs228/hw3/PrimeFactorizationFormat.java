@@ -0,0 +1,316 @@
+package edu.iastate.cs228.hw3;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.function.Consumer;
+
+/**
+ * Text form of a PrimeFactorization, as written by toString(): the factors in
+ * increasing order separated by " * ", with "^" before multiplicities other
+ * than 1, e.g. "2 * 3^2 * 17 * 19"; the number 1 is written "1".
+ * 
+ * The formatter appends to a caller-supplied StringBuilder or Appendable, and
+ * the parser reads a CharSequence in place, so neither builds intermediate
+ * strings. parseLines() streams one factorization per line from a Reader
+ * through a single reused line buffer.
+ * 
+ * @author Andrew Pester
+ *
+ */
+public final class PrimeFactorizationFormat {
+
+	private PrimeFactorizationFormat() {
+
+	}
+
+	// ----------
+	// Formatting
+	// ----------
+
+	/**
+	 * Appends the text form of pf to sb.
+	 * 
+	 * @param pf
+	 * @param sb
+	 * @return sb
+	 */
+	public static StringBuilder format(PrimeFactorization pf, StringBuilder sb) {
+
+		return write(pf, sb);
+	}
+
+	/**
+	 * Appends the text form of pf to sb.
+	 * 
+	 * @param pf
+	 * @param sb
+	 * @return sb
+	 */
+	public static StringBuilder format(ArrayPrimeFactorization pf, StringBuilder sb) {
+
+		return write(pf, sb);
+	}
+
+	/**
+	 * Appends the text form of pf to sb.
+	 * 
+	 * @param pf
+	 * @param sb
+	 * @return sb
+	 */
+	public static StringBuilder format(ImmutablePrimeFactorization pf, StringBuilder sb) {
+
+		return write(pf, sb);
+	}
+
+	/**
+	 * Appends the text form of pf to out, one factor at a time.
+	 * 
+	 * @param pf
+	 * @param out
+	 * @return out
+	 * @throws IOException if out throws
+	 */
+	public static <A extends Appendable> A format(PrimeFactorization pf, A out) throws IOException {
+
+		try {
+			return write(pf, out);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	// -------
+	// Parsing
+	// -------
+
+	/**
+	 * @param s
+	 * @return the factorization written in s
+	 * @throws IllegalArgumentException if s is not a factorization
+	 */
+	public static PrimeFactorization parse(CharSequence s) throws IllegalArgumentException {
+
+		return parse(s, 0, s.length());
+	}
+
+	/**
+	 * Parses s[start..end) without copying it. Blanks around the tokens are
+	 * ignored. Factors may come in any order and repeat a prime; the usual
+	 * increasing order is appended directly, anything else goes through add().
+	 * 
+	 * @param s
+	 * @param start
+	 * @param end
+	 * @return the factorization written in s[start..end)
+	 * @throws IllegalArgumentException if the text is not a factorization or a
+	 *                                  base is not a prime
+	 */
+	public static PrimeFactorization parse(CharSequence s, int start, int end) throws IllegalArgumentException {
+
+		PrimeFactorization ret = new PrimeFactorization();
+		int i = skipBlanks(s, start, end);
+		if (i < end && s.charAt(i) == '1' && skipBlanks(s, i + 1, end) == end) {
+			return ret;
+		}
+		int last = 0;
+		while (true) {
+			int j = skipDigits(s, i, end);
+			int p = toInt(s, i, j);
+			int m = 1;
+			i = skipBlanks(s, j, end);
+			if (i < end && s.charAt(i) == '^') {
+				i = skipBlanks(s, i + 1, end);
+				j = skipDigits(s, i, end);
+				m = toInt(s, i, j);
+				i = skipBlanks(s, j, end);
+			}
+			if (m < 1 || !PrimeFactorization.isPrime(p)) {
+				throw error(s, j);
+			}
+			if (p > last) {
+				ret.append(p, m);
+				last = p;
+			} else {
+				ret.add(p, m);
+			}
+			if (i == end) {
+				return ret;
+			}
+			if (s.charAt(i) != '*') {
+				throw error(s, i);
+			}
+			i = skipBlanks(s, i + 1, end);
+		}
+	}
+
+	/**
+	 * Parses every non-blank line of in and hands the results to out in order.
+	 * 
+	 * @param in
+	 * @param out
+	 * @return number of factorizations parsed
+	 * @throws IOException              if in throws
+	 * @throws IllegalArgumentException if a line is not a factorization
+	 */
+	public static long parseLines(Reader in, Consumer<? super PrimeFactorization> out)
+			throws IOException, IllegalArgumentException {
+
+		char[] buf = new char[8192];
+		StringBuilder line = new StringBuilder(128);
+		long count = 0;
+		int n;
+		while ((n = in.read(buf)) >= 0) {
+			int from = 0;
+			for (int k = 0; k < n; k++) {
+				if (buf[k] == '\n') {
+					line.append(buf, from, k - from);
+					count += parseLine(line, out);
+					from = k + 1;
+				}
+			}
+			line.append(buf, from, n - from);
+		}
+		return count + parseLine(line, out);
+	}
+
+	// --------------
+	// Helper methods
+	// --------------
+
+	/**
+	 * Parses and clears line unless it is blank.
+	 * 
+	 * @return 1 if a factorization was parsed, 0 otherwise
+	 */
+	private static int parseLine(StringBuilder line, Consumer<? super PrimeFactorization> out) {
+
+		int ret = 0;
+		if (skipBlanks(line, 0, line.length()) < line.length()) {
+			out.accept(parse(line));
+			ret = 1;
+		}
+		line.setLength(0);
+		return ret;
+	}
+
+	/**
+	 * Appends one factor, "p" or "p^m". The only place the factor syntax is
+	 * written; PrimeFactor.toString() uses it too.
+	 * 
+	 * @return sb
+	 */
+	static StringBuilder appendFactor(StringBuilder sb, int p, int m) {
+
+		sb.append(p);
+		if (m != 1) {
+			sb.append('^').append(m);
+		}
+		return sb;
+	}
+
+	/**
+	 * The one implementation behind every format() overload. IOExceptions from
+	 * out come back wrapped in an UncheckedIOException, since they have to
+	 * pass through IntIntConsumer.accept().
+	 */
+	private static <A extends Appendable> A write(FactorSource pf, A out) {
+
+		FactorWriter w = new FactorWriter(out);
+		if (pf.size() == 0) {
+			w.one();
+		} else {
+			pf.forEachFactor(w);
+		}
+		return out;
+	}
+
+	/**
+	 * Writes the factors it is given separated by " * ". A StringBuilder is
+	 * appended to directly; any other Appendable receives each factor from a
+	 * small buffer reused for the whole factorization.
+	 */
+	private static final class FactorWriter implements IntIntConsumer {
+		private final Appendable out;
+		private final StringBuilder factor; // out itself if it is a StringBuilder
+		private boolean first = true;
+
+		FactorWriter(Appendable out) {
+
+			this.out = out;
+			factor = out instanceof StringBuilder ? (StringBuilder) out : new StringBuilder(24);
+		}
+
+		@Override
+		public void accept(int prime, int multiplicity) {
+
+			try {
+				if (!first) {
+					out.append(" * ");
+				}
+				if (factor == out) {
+					appendFactor(factor, prime, multiplicity);
+				} else {
+					factor.setLength(0);
+					out.append(appendFactor(factor, prime, multiplicity));
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			first = false;
+		}
+
+		/**
+		 * Writes the number 1, which has no factors.
+		 */
+		void one() {
+
+			try {
+				out.append('1');
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	private static int skipBlanks(CharSequence s, int i, int end) {
+
+		while (i < end && Character.isWhitespace(s.charAt(i))) {
+			i++;
+		}
+		return i;
+	}
+
+	private static int skipDigits(CharSequence s, int i, int end) {
+
+		while (i < end && s.charAt(i) >= '0' && s.charAt(i) <= '9') {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * @return value of the digits s[from..to)
+	 * @throws IllegalArgumentException if there are none or they exceed an int
+	 */
+	private static int toInt(CharSequence s, int from, int to) {
+
+		if (from == to) {
+			throw error(s, from);
+		}
+		long v = 0;
+		for (int i = from; i < to; i++) {
+			v = 10 * v + (s.charAt(i) - '0');
+			if (v > Integer.MAX_VALUE) {
+				throw error(s, from);
+			}
+		}
+		return (int) v;
+	}
+
+	private static IllegalArgumentException error(CharSequence s, int index) {
+
+		return new IllegalArgumentException("not a prime factorization at index " + index + ": \"" + s + "\"");
+	}
+}
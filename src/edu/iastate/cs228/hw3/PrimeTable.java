@@ -0,0 +1,316 @@
+package edu.iastate.cs228.hw3;
+
+import java.util.Arrays;
+
+/**
+ * Table of primes shared by every PrimeFactorization. It covers all numbers
+ * below a limit, which is doubled on demand by a segmented sieve of
+ * Eratosthenes until the memory limit is reached. Odd numbers are stored as a
+ * bitset (bit i stands for 2i + 1); the primes found so far are also kept in
+ * an int array so that trial division only ever touches primes.
+ * 
+ * Readers never lock: each growth step publishes a new immutable snapshot.
+ * 
+ * @author Andrew Pester
+ *
+ */
+public final class PrimeTable {
+
+	/**
+	 * Default ceiling on the bytes used by the table.
+	 */
+	public static final long DEFAULT_MEMORY_LIMIT = 32L << 20;
+
+	private static final int INITIAL_LIMIT = 1 << 16;
+
+	/**
+	 * Numbers sieved per pass when the table grows (16 KB of bits).
+	 */
+	private static final int SEGMENT = 1 << 18;
+
+	private static volatile long memoryLimit = DEFAULT_MEMORY_LIMIT;
+
+	private static volatile Table table = initialTable();
+
+	private PrimeTable() {
+
+	}
+
+	// -------------
+	// Configuration
+	// -------------
+
+	/**
+	 * @return the number of bytes the table may grow to
+	 */
+	public static long getMemoryLimit() {
+
+		return memoryLimit;
+	}
+
+	/**
+	 * Sets the number of bytes the table may grow to. A table that is already
+	 * larger is kept as it is.
+	 * 
+	 * @param bytes
+	 * @throws IllegalArgumentException if bytes < 0
+	 */
+	public static void setMemoryLimit(long bytes) throws IllegalArgumentException {
+
+		if (bytes < 0) {
+			throw new IllegalArgumentException();
+		}
+		memoryLimit = bytes;
+	}
+
+	/**
+	 * @return every number below this bound is currently covered by the table
+	 */
+	public static long limit() {
+
+		return table.limit;
+	}
+
+	// -------
+	// Queries
+	// -------
+
+	/**
+	 * Returns the i-th prime (prime(0) == 2), growing the table if needed.
+	 * 
+	 * @param i
+	 * @return i-th prime
+	 * @throws IndexOutOfBoundsException if i < 0 or the i-th prime lies beyond
+	 *                                   what the memory limit allows
+	 */
+	public static int prime(int i) throws IndexOutOfBoundsException {
+
+		if (i < 0) {
+			throw new IndexOutOfBoundsException();
+		}
+		Table t = table;
+		while (i >= t.count) {
+			if (!grow(2 * t.limit)) {
+				throw new IndexOutOfBoundsException();
+			}
+			t = table;
+		}
+		return t.primes[i];
+	}
+
+	/**
+	 * Returns the smallest prime greater than p. Answered from the table when
+	 * it can grow to cover the result, and by testing odd candidates with
+	 * PrimeFactorization.isPrime() past that.
+	 * 
+	 * @param p
+	 * @return next prime after p
+	 * @throws ArithmeticException if there is no larger prime within long range
+	 */
+	public static long nextPrime(long p) throws ArithmeticException {
+
+		if (p < 2) {
+			return 2;
+		}
+		if (p == Long.MAX_VALUE) {
+			throw new ArithmeticException();
+		}
+		long n = (p + 1) | 1;
+		Table t = table;
+		if (n >= t.limit && n < 1L << 31) {
+			grow(n + 1);
+			t = table;
+		}
+		if (n < t.limit) {
+			long[] bits = t.odd;
+			int i = (int) (n >>> 1);
+			int w = i >>> 6;
+			long word = ~bits[w] & (-1L << i);
+			while (word == 0 && ++w < bits.length) {
+				word = ~bits[w];
+			}
+			if (word != 0) {
+				long q = 2 * ((long) w * 64 + Long.numberOfTrailingZeros(word)) + 1;
+				if (q < t.limit) {
+					return q;
+				}
+			}
+			n = t.limit | 1;
+		}
+		for (; n > 0; n += 2) {
+			if (Primality.isPrime(n)) {
+				return n;
+			}
+		}
+		throw new ArithmeticException();
+	}
+
+	/**
+	 * Number of primes below bound, growing the table if needed. Lets callers
+	 * bound a loop over prime(i) without fetching the first prime past it,
+	 * which could force the table to grow.
+	 * 
+	 * @param bound
+	 * @return number of primes p < bound
+	 * @throws IndexOutOfBoundsException if bound lies beyond what the memory
+	 *                                   limit allows
+	 */
+	static int count(long bound) throws IndexOutOfBoundsException {
+
+		Table t = table;
+		if (bound > t.limit) {
+			if (!grow(bound)) {
+				throw new IndexOutOfBoundsException();
+			}
+			t = table;
+		}
+		if (bound > Integer.MAX_VALUE) {
+			return t.count;
+		}
+		int i = Arrays.binarySearch(t.primes, 0, t.count, (int) bound);
+		return i >= 0 ? i : -i - 1;
+	}
+
+	/**
+	 * Looks n up without growing the table.
+	 * 
+	 * @return 1 if n is a prime, 0 if it is not, -1 if n is not covered
+	 */
+	static int lookup(long n) {
+
+		Table t = table;
+		if (n >= t.limit) {
+			return -1;
+		}
+		if (n < 3) {
+			return n == 2 ? 1 : 0;
+		}
+		if ((n & 1) == 0) {
+			return 0;
+		}
+		int i = (int) (n >>> 1);
+		return (t.odd[i >>> 6] & (1L << i)) == 0 ? 1 : 0;
+	}
+
+	// -------
+	// Growing
+	// -------
+
+	/**
+	 * Immutable snapshot of the table.
+	 */
+	private static final class Table {
+		final long limit; // every n < limit is covered
+		final long[] odd; // bit i set if 2i + 1 is composite
+		final int[] primes; // primes below limit in increasing order
+		final int count; // number of valid entries in primes
+
+		Table(long limit, long[] odd, int[] primes, int count) {
+
+			this.limit = limit;
+			this.odd = odd;
+			this.primes = primes;
+			this.count = count;
+		}
+	}
+
+	/**
+	 * Plain sieve for the first INITIAL_LIMIT numbers.
+	 */
+	private static Table initialTable() {
+
+		long[] odd = new long[words(INITIAL_LIMIT)];
+		odd[0] |= 1; // 1 is not a prime
+		for (int p = 3; p * p < INITIAL_LIMIT; p += 2) {
+			if ((odd[p >>> 7] & (1L << (p >>> 1))) == 0) {
+				for (int j = p * p; j < INITIAL_LIMIT; j += 2 * p) {
+					odd[j >>> 7] |= 1L << (j >>> 1);
+				}
+			}
+		}
+		int[] primes = new int[INITIAL_LIMIT / 8];
+		int count = 0;
+		primes[count++] = 2;
+		for (int n = 3; n < INITIAL_LIMIT; n += 2) {
+			if ((odd[n >>> 7] & (1L << (n >>> 1))) == 0) {
+				primes[count++] = n;
+			}
+		}
+		return new Table(INITIAL_LIMIT, odd, primes, count);
+	}
+
+	/**
+	 * Doubles the table until it covers every number below needed or the memory
+	 * limit stops it.
+	 * 
+	 * @return true if every number below needed is covered afterwards
+	 */
+	private static synchronized boolean grow(long needed) {
+
+		Table t = table;
+		while (t.limit < needed) {
+			long next = 2 * t.limit;
+			if (next > (1L << 31) || estimateBytes(next) > memoryLimit) {
+				return false;
+			}
+			t = extend(t, next);
+			table = t;
+		}
+		return true;
+	}
+
+	/**
+	 * Sieves [t.limit, next) segment by segment with the primes already in t.
+	 * 
+	 * Precondition: next <= t.limit * t.limit
+	 */
+	private static Table extend(Table t, long next) {
+
+		long[] odd = Arrays.copyOf(t.odd, words(next));
+		int[] primes = t.primes;
+		int count = t.count;
+		for (long lo = t.limit; lo < next; lo += SEGMENT) {
+			long hi = Math.min(lo + SEGMENT, next);
+			for (int k = 1; k < t.count; k++) {
+				long p = t.primes[k];
+				if (p * p >= hi) {
+					break;
+				}
+				long start = Math.max(p * p, (lo + p - 1) / p * p);
+				if ((start & 1) == 0) {
+					start += p;
+				}
+				for (long j = start; j < hi; j += 2 * p) {
+					odd[(int) (j >>> 7)] |= 1L << (j >>> 1);
+				}
+			}
+			for (long n = lo | 1; n < hi; n += 2) {
+				if ((odd[(int) (n >>> 7)] & (1L << (n >>> 1))) == 0) {
+					if (count == primes.length) {
+						primes = Arrays.copyOf(primes, 2 * count);
+					}
+					primes[count++] = (int) n;
+				}
+			}
+		}
+		return new Table(next, odd, primes, count);
+	}
+
+	/**
+	 * @return longs needed for the odd bits of every number below limit
+	 */
+	private static int words(long limit) {
+
+		return (int) ((limit >>> 7) + 1);
+	}
+
+	/**
+	 * Upper bound on the bytes of a table with the given limit, using
+	 * pi(x) < 1.26 x / ln x for the prime list (which may be up to twice as long
+	 * as needed).
+	 */
+	private static long estimateBytes(long limit) {
+
+		return limit / 16 + (long) (2 * 4 * 1.26 * limit / Math.log(limit));
+	}
+}
@@ -0,0 +1,86 @@
+package edu.iastate.cs228.hw3;
+
+import java.util.Random;
+
+/**
+ * Correctness sweep for PrimeFactorization(long) and the factoring engine. For
+ * every n up to a limit (30000 by default, or the first argument), the
+ * factorization, value() and isPrime() are compared with plain trial
+ * division; then random products of two int primes are factored and must
+ * multiply back. Exits with status 1 on the first mismatch.
+ * 
+ * @author Andrew Pester
+ *
+ */
+public class FactoringSweep {
+	private static final int DEFAULT_LIMIT = 30000;
+	private static final int RANDOM_CASES = 10000;
+
+	public static void main(String[] args) {
+
+		int limit = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_LIMIT;
+		for (long n = 1; n <= limit; n++) {
+			PrimeFactorization pf = new PrimeFactorization(n);
+			check(pf.toString().equals(trialDivision(n)), n + ": " + pf + " != " + trialDivision(n));
+			check(pf.value() == n, n + ": value() == " + pf.value());
+			check(PrimeFactorization.isPrime(n) == (n > 1 && trialDivision(n).equals(Long.toString(n))),
+					n + ": isPrime() wrong");
+		}
+
+		Random random = new Random(228);
+		for (int i = 0; i < RANDOM_CASES; i++) {
+			long p = PrimeTable.nextPrime(random.nextInt(Integer.MAX_VALUE - 64));
+			long q = PrimeTable.nextPrime(random.nextInt(Integer.MAX_VALUE - 64));
+			long n = p * q;
+			PrimeFactorization pf = new PrimeFactorization(n);
+			String expected = p == q ? p + "^2" : Math.min(p, q) + " * " + Math.max(p, q);
+			check(pf.toString().equals(expected), n + ": " + pf + " != " + expected);
+			check(pf.value() == n, n + ": value() == " + pf.value());
+		}
+		System.out.println("FactoringSweep: 1.." + limit + " and " + RANDOM_CASES + " semiprimes passed");
+	}
+
+	/**
+	 * Reference factorization in toString() form, by trial division.
+	 */
+	private static String trialDivision(long n) {
+
+		if (n == 1) {
+			return "1";
+		}
+		StringBuilder sb = new StringBuilder();
+		for (long p = 2; p * p <= n; p++) {
+			int m = 0;
+			while (n % p == 0) {
+				n /= p;
+				m++;
+			}
+			if (m > 0) {
+				append(sb, p, m);
+			}
+		}
+		if (n > 1) {
+			append(sb, n, 1);
+		}
+		return sb.toString();
+	}
+
+	private static void append(StringBuilder sb, long p, int m) {
+
+		if (sb.length() > 0) {
+			sb.append(" * ");
+		}
+		sb.append(p);
+		if (m > 1) {
+			sb.append('^').append(m);
+		}
+	}
+
+	private static void check(boolean ok, String message) {
+
+		if (!ok) {
+			System.err.println("FactoringSweep failed at " + message);
+			System.exit(1);
+		}
+	}
+}
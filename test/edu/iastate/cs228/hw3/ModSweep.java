@@ -0,0 +1,105 @@
+package edu.iastate.cs228.hw3;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+/**
+ * Correctness sweep for mod() and isDivisibleBy() on factorizations whose
+ * value overflows a long. Random products of many numbers are reduced modulo
+ * odd moduli, powers of 2 and mixed moduli 2^s * q, and the results are
+ * compared with BigInteger.mod() on bigValue(). Every factorization is also
+ * tested against divisors built from its own factors, so that both answers of
+ * isDivisibleBy() are exercised. Exits with status 1 on the first mismatch.
+ * 
+ * @author Andrew Pester
+ *
+ */
+public class ModSweep {
+	private static final int DEFAULT_CASES = 2000;
+	private static final int MODULI_PER_CASE = 16;
+
+	public static void main(String[] args) {
+
+		int cases = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_CASES;
+		Random random = new Random(228);
+		long checked = 0;
+		for (int i = 0; i < cases; i++) {
+			PrimeFactorization pf = overflowing(random);
+			BigInteger v = pf.bigValue();
+			check(pf.valueOverflow(), pf + ": value does not overflow");
+
+			for (int s = 0; s < 63; s++) {
+				checked += compare(pf, v, 1L << s);
+			}
+			for (int j = 0; j < MODULI_PER_CASE; j++) {
+				long odd = (random.nextLong() >>> 1) | 1;
+				long small = (random.nextInt(1 << 20) << 1) + 1;
+				int s = 1 + random.nextInt(62);
+				checked += compare(pf, v, odd);
+				checked += compare(pf, v, small);
+				checked += compare(pf, v, Math.max(1, odd >>> s) << s);
+				checked += compare(pf, v, small << Math.min(s, 42));
+				checked += compare(pf, v, divisor(pf, random));
+				checked += compare(pf, v, divisor(pf, random) * (random.nextInt(7) + 2));
+			}
+			checked += compare(pf, v, Long.MAX_VALUE);
+			checked += compare(pf, v, 1L << 62);
+		}
+		System.out.println("ModSweep: " + checked + " moduli of " + cases + " overflowed factorizations passed");
+	}
+
+	/**
+	 * Product of 4 to 11 random numbers, each below 2^24, and one odd prime
+	 * close to 2^31, so that it always overflows a long.
+	 */
+	private static PrimeFactorization overflowing(Random random) {
+
+		long p = PrimeTable.nextPrime(Integer.MAX_VALUE - random.nextInt(1 << 20));
+		PrimeFactorization pf = new PrimeFactorization(p);
+		int count = 4 + random.nextInt(8);
+		for (int i = 0; i < count; i++) {
+			pf.multiply(1 + random.nextInt(1 << 24));
+		}
+		return pf;
+	}
+
+	/**
+	 * Product of random prime powers of pf, as long as it stays below 2^60.
+	 */
+	private static long divisor(PrimeFactorization pf, Random random) {
+
+		long d = 1;
+		for (PrimeFactor f : pf) {
+			if (random.nextBoolean()) {
+				continue;
+			}
+			for (int e = 1 + random.nextInt(f.multiplicity); e > 0; e--) {
+				if (d > (1L << 60) / f.prime) {
+					return d;
+				}
+				d *= f.prime;
+			}
+		}
+		return d;
+	}
+
+	/**
+	 * @return 1, the number of moduli checked
+	 */
+	private static int compare(PrimeFactorization pf, BigInteger v, long m) {
+
+		long expected = v.mod(BigInteger.valueOf(m)).longValue();
+		long actual = pf.mod(m);
+		check(actual == expected, pf + " mod " + m + " == " + actual + ", expected " + expected);
+		check(pf.isDivisibleBy(m) == (expected == 0), pf + ": isDivisibleBy(" + m + ") wrong");
+		return 1;
+	}
+
+	private static void check(boolean ok, String message) {
+
+		if (!ok) {
+			System.err.println("ModSweep failed at " + message);
+			System.exit(1);
+		}
+	}
+}